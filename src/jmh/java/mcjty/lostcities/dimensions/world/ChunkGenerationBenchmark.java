@@ -0,0 +1,214 @@
+package mcjty.lostcities.dimensions.world;
+
+import mcjty.lostcities.LostCities;
+import mcjty.lostcities.dimensions.world.lost.BuildingInfo;
+import mcjty.lostcities.dimensions.world.lost.City;
+import mcjty.lostcities.dimensions.world.lost.Railway;
+import mcjty.lostcities.dimensions.world.lost.cityassets.CompiledPalette;
+import mcjty.lostcities.headless.CoreKernelComparison;
+import mcjty.lostcities.headless.HeadlessWorld;
+import net.minecraft.init.Biomes;
+import net.minecraft.world.chunk.ChunkPrimer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Benchmarks for the hot paths of chunk generation. Run with 'gradlew jmh'. Extra JMH
+ * arguments can be given with -PjmhArgs="..." (for example -PjmhArgs="-p profile=tallbuildings")
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkGenerationBenchmark {
+
+    // Size of the area that is searched for suitable chunks
+    private static final int SEARCH_RADIUS = 64;
+
+    @Param({"default"})
+    public String profile;
+
+    private LostCityChunkGenerator provider;
+    private int cityX, cityZ;
+    private int otherX, otherZ;
+    private int damagedX, damagedZ;
+    private ChunkPrimer corePrimer;
+    private ChunkPrimer damagedPrimer;
+    private BuildingInfo damagedInfo;
+    private CompiledPalette palette;
+    private char[] paletteChars;
+    private int counter = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        provider = HeadlessWorld.createGenerator(HeadlessWorld.DEFAULT_SEED, profile, Biomes.PLAINS);
+
+        int[] c = find(info -> info.isCity);
+        cityX = c[0];
+        cityZ = c[1];
+        c = find(info -> !info.isCity);
+        otherX = c[0];
+        otherZ = c[1];
+        c = find(info -> info.isCity && info.getDamageArea().hasExplosions());
+        damagedX = c[0];
+        damagedZ = c[1];
+
+        corePrimer = provider.generatePrimer(otherX, otherZ);
+
+        // fixAfterExplosionNew() is benchmarked on the finished chunk. That chunk was already
+        // fixed but scanning for floating blocks (which is most of the work) is the same
+        damagedInfo = BuildingInfo.getBuildingInfo(damagedX, damagedZ, provider);
+        damagedPrimer = new ChunkPrimer();
+        provider.getTerrainGenerator().generate(damagedX, damagedZ, damagedPrimer, new Random(HeadlessWorld.DEFAULT_SEED));
+
+        palette = BuildingInfo.getBuildingInfo(cityX, cityZ, provider).getCompiledPalette();
+        Set<Character> characters = palette.getCharacters();
+        paletteChars = new char[characters.size()];
+        int i = 0;
+        for (Character character : characters) {
+            paletteChars[i++] = character;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        provider.getContext().clear();
+        LostCities.cleanCaches();
+    }
+
+    // Find the chunk closest to 0,0 for which the test is true
+    private int[] find(Predicate<BuildingInfo> test) {
+        for (int r = 0; r < SEARCH_RADIUS; r++) {
+            for (int x = -r; x <= r; x++) {
+                for (int z = -r; z <= r; z++) {
+                    if ((Math.abs(x) == r || Math.abs(z) == r) && test.test(BuildingInfo.getBuildingInfo(x, z, provider))) {
+                        return new int[] { x, z };
+                    }
+                }
+            }
+        }
+        throw new RuntimeException("No suitable chunk found for profile '" + profile + "'!");
+    }
+
+    // Caches are cleared before every invocation
+    @State(Scope.Thread)
+    public static class ColdCaches {
+        @Setup(Level.Invocation)
+        public void clear(ChunkGenerationBenchmark benchmark) {
+            benchmark.provider.getContext().clear();
+            LostCities.cleanCaches();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ColdRailways {
+        @Setup(Level.Invocation)
+        public void clear(ChunkGenerationBenchmark benchmark) {
+            benchmark.provider.getContext().getRailInfoCache().clear();
+        }
+    }
+
+    // generate() adds chests, spawners, torches and so on to the todo lists of the
+    // chunk (see ChunkTodo). These are emptied before every invocation like
+    // populate() would do
+    @State(Scope.Thread)
+    public static class EmptyTodos {
+        @Setup(Level.Invocation)
+        public void clear(ChunkGenerationBenchmark benchmark) {
+            takeTodos(BuildingInfo.getBuildingInfo(benchmark.cityX, benchmark.cityZ, benchmark.provider));
+            takeTodos(BuildingInfo.getBuildingInfo(benchmark.otherX, benchmark.otherZ, benchmark.provider));
+        }
+
+        private static void takeTodos(BuildingInfo info) {
+            info.takeSaplingTodo();
+            info.takeTorchTodo();
+            info.takeGenericTodo();
+            info.takeMobSpawnerTodo();
+            info.takeChestTodo();
+        }
+    }
+
+    @Benchmark
+    public ChunkPrimer doCoreChunk() {
+        ChunkPrimer primer = new ChunkPrimer();
+        provider.getTerrainGenerator().doCoreChunk(otherX, otherZ, primer);
+        return primer;
+    }
+
+    // The original block by block kernel (see CoreKernelComparison) to compare with doCoreChunk()
+    @Benchmark
+    public ChunkPrimer doCoreChunkReference() {
+        ChunkPrimer primer = new ChunkPrimer();
+        CoreKernelComparison.referenceCoreChunk(provider.getTerrainGenerator(), provider.profile.WATERLEVEL, otherX, otherZ, primer);
+        return primer;
+    }
+
+    @Benchmark
+    public ChunkPrimer generateCityChunk(EmptyTodos todos) {
+        ChunkPrimer primer = new ChunkPrimer();
+        provider.getTerrainGenerator().generate(cityX, cityZ, primer, new Random(HeadlessWorld.DEFAULT_SEED));
+        return primer;
+    }
+
+    @Benchmark
+    public ChunkPrimer generateNonCityChunk(EmptyTodos todos) {
+        ChunkPrimer primer = new ChunkPrimer();
+        System.arraycopy(corePrimer.data, 0, primer.data, 0, primer.data.length);
+        provider.getTerrainGenerator().generate(otherX, otherZ, primer, new Random(HeadlessWorld.DEFAULT_SEED));
+        return primer;
+    }
+
+    @Benchmark
+    public BuildingInfo getBuildingInfoCold(ColdCaches cold) {
+        return BuildingInfo.getBuildingInfo(cityX, cityZ, provider);
+    }
+
+    @Benchmark
+    public BuildingInfo getBuildingInfoWarm() {
+        return BuildingInfo.getBuildingInfo(cityX, cityZ, provider);
+    }
+
+    @Benchmark
+    public float getCityFactor() {
+        // Walk over new chunks so that we don't only measure a few chunks
+        int i = counter++;
+        return City.getCityFactor(cityX + (i & 63), cityZ + ((i >> 6) & 63), provider);
+    }
+
+    @Benchmark
+    public float[] getCityFactors() {
+        // The city factors of a region of 8x8 chunks at a time
+        int i = counter++;
+        int x = cityX + (i & 7) * 8;
+        int z = cityZ + ((i >> 3) & 7) * 8;
+        return City.getCityFactors(x, z, x + 7, z + 7, provider);
+    }
+
+    @Benchmark
+    public Railway.RailChunkInfo getRailChunkType(ColdRailways cold) {
+        return Railway.getRailChunkType(cityX, cityZ, provider);
+    }
+
+    @Benchmark
+    public ChunkPrimer fixAfterExplosion() {
+        ChunkPrimer primer = new ChunkPrimer();
+        System.arraycopy(damagedPrimer.data, 0, primer.data, 0, primer.data.length);
+        provider.getTerrainGenerator().fixAfterExplosionNew(primer, damagedInfo, new Random(HeadlessWorld.DEFAULT_SEED));
+        return primer;
+    }
+
+    @Benchmark
+    public int compiledPaletteGet() {
+        int result = 0;
+        for (char c : paletteChars) {
+            result += palette.get(c);
+        }
+        return result;
+    }
+}
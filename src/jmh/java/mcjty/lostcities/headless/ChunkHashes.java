@@ -0,0 +1,29 @@
+package mcjty.lostcities.headless;
+
+import net.minecraft.world.chunk.ChunkPrimer;
+
+/**
+ * 64-bit hashes of generated chunks so that the output of different versions of the
+ * generator can be compared
+ */
+public class ChunkHashes {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // FNV-1a over all block state ids of the primer
+    public static long hash(ChunkPrimer primer) {
+        long hash = FNV_OFFSET;
+        for (char c : primer.data) {
+            hash ^= c & 0xff;
+            hash *= FNV_PRIME;
+            hash ^= c >>> 8;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public static String toString(long hash) {
+        return String.format("%016x", hash);
+    }
+}
@@ -0,0 +1,168 @@
+package mcjty.lostcities.headless;
+
+import mcjty.lostcities.LostCities;
+import mcjty.lostcities.dimensions.world.ChunkHeightmap;
+import mcjty.lostcities.dimensions.world.LostCitiesTerrainGenerator;
+import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
+import net.minecraft.init.Biomes;
+import net.minecraft.world.chunk.ChunkPrimer;
+
+/**
+ * Compare the core terrain kernel (doCoreChunk() which fills whole runs of a column at
+ * once and doCoreHeightmap()) with the original block by block interpolation for a square
+ * of chunks around 0,0. Both must give exactly the same blocks and heights. The original
+ * kernel is kept here (referenceCoreChunk()) so that it can also be benchmarked (see
+ * ChunkGenerationBenchmark.doCoreChunkReference()).
+ *
+ * Usage: CoreKernelComparison [-seed n] [-profile name] [-radius r]
+ * or with gradle: gradlew coreKernel -PkernelArgs="-profile rarecities -radius 32"
+ */
+public class CoreKernelComparison {
+
+    public static void main(String[] args) {
+        long seed = HeadlessWorld.DEFAULT_SEED;
+        String profile = "default";
+        int radius = 16;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                usage();
+            } else if ("-seed".equals(arg)) {
+                seed = Long.parseLong(args[++i]);
+            } else if ("-profile".equals(arg)) {
+                profile = args[++i];
+            } else if ("-radius".equals(arg)) {
+                radius = Integer.parseInt(args[++i]);
+            } else {
+                usage();
+            }
+        }
+
+        LostCityChunkGenerator provider = HeadlessWorld.createGenerator(seed, profile, Biomes.PLAINS);
+        int differ = compare(provider, radius);
+        System.out.println("# profile=" + profile + " seed=" + seed + " chunks=" + ((2 * radius + 1) * (2 * radius + 1)) + " different=" + differ);
+        provider.getContext().clear();
+        LostCities.cleanCaches();
+        System.exit(differ == 0 ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: CoreKernelComparison [-seed n] [-profile name] [-radius r]");
+        System.exit(1);
+    }
+
+    /**
+     * Returns the number of chunks for which the blocks or the heightmap are different.
+     * The first difference of every such chunk is printed
+     */
+    public static int compare(LostCityChunkGenerator provider, int radius) {
+        LostCitiesTerrainGenerator generator = provider.getTerrainGenerator();
+        int waterLevel = provider.profile.WATERLEVEL;
+        int differ = 0;
+        for (int x = -radius; x <= radius; x++) {
+            for (int z = -radius; z <= radius; z++) {
+                ChunkPrimer expected = new ChunkPrimer();
+                referenceCoreChunk(generator, waterLevel, x, z, expected);
+                ChunkPrimer actual = new ChunkPrimer();
+                generator.doCoreChunk(x, z, actual);
+
+                String difference = findDifference(expected, actual);
+                if (difference == null) {
+                    difference = findDifference(new ChunkHeightmap(expected), generator.doCoreHeightmap(x, z));
+                }
+                if (difference != null) {
+                    System.out.println(x + " " + z + " " + difference);
+                    differ++;
+                }
+            }
+        }
+        return differ;
+    }
+
+    private static String findDifference(ChunkPrimer expected, ChunkPrimer actual) {
+        for (int i = 0; i < expected.data.length; i++) {
+            if (expected.data[i] != actual.data[i]) {
+                return "block " + (i >> 12) + "," + (i & 255) + "," + ((i >> 8) & 15)
+                        + " expected " + (int) expected.data[i] + " got " + (int) actual.data[i];
+            }
+        }
+        return null;
+    }
+
+    private static String findDifference(ChunkHeightmap expected, ChunkHeightmap actual) {
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                if (expected.getHeight(x, z) != actual.getHeight(x, z)) {
+                    return "height " + x + "," + z + " expected " + expected.getHeight(x, z) + " got " + actual.getHeight(x, z);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The original doCoreChunk(): trilinear interpolation of the noise for every block
+     */
+    public static void referenceCoreChunk(LostCitiesTerrainGenerator generator, int waterLevel, int chunkX, int chunkZ, ChunkPrimer primer) {
+        char baseChar = LostCitiesTerrainGenerator.baseChar;
+        char liquidChar = LostCitiesTerrainGenerator.liquidChar;
+        double[] heightMap = generator.heightMap;
+
+        generator.generateHeightmap(chunkX, chunkZ);
+        for (int x4 = 0; x4 < 4; ++x4) {
+            int l = x4 * 5;
+            int i1 = (x4 + 1) * 5;
+
+            for (int z4 = 0; z4 < 4; ++z4) {
+                int k1 = (l + z4) * 33;
+                int l1 = (l + z4 + 1) * 33;
+                int i2 = (i1 + z4) * 33;
+                int j2 = (i1 + z4 + 1) * 33;
+
+                for (int height32 = 0; height32 < 32; ++height32) {
+                    double d1 = heightMap[k1 + height32];
+                    double d2 = heightMap[l1 + height32];
+                    double d3 = heightMap[i2 + height32];
+                    double d4 = heightMap[j2 + height32];
+                    double d5 = (heightMap[k1 + height32 + 1] - d1) * 0.125D;
+                    double d6 = (heightMap[l1 + height32 + 1] - d2) * 0.125D;
+                    double d7 = (heightMap[i2 + height32 + 1] - d3) * 0.125D;
+                    double d8 = (heightMap[j2 + height32 + 1] - d4) * 0.125D;
+
+                    for (int h = 0; h < 8; ++h) {
+                        double d10 = d1;
+                        double d11 = d2;
+                        double d12 = (d3 - d1) * 0.25D;
+                        double d13 = (d4 - d2) * 0.25D;
+                        int height = (height32 * 8) + h;
+
+                        for (int x = 0; x < 4; ++x) {
+                            int index = ((x + (x4 * 4)) << 12) | ((0 + (z4 * 4)) << 8) | height;
+                            short maxheight = 256;
+                            index -= maxheight;
+                            double d16 = (d11 - d10) * 0.25D;
+                            double d15 = d10 - d16;
+
+                            for (int z = 0; z < 4; ++z) {
+                                index += maxheight;
+                                if ((d15 += d16) > 0.0D) {
+                                    primer.data[index] = baseChar;
+                                } else if (height < waterLevel) {
+                                    primer.data[index] = liquidChar;
+                                }
+                            }
+
+                            d10 += d12;
+                            d11 += d13;
+                        }
+
+                        d1 += d5;
+                        d2 += d6;
+                        d3 += d7;
+                        d4 += d8;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package mcjty.lostcities.headless;
+
+import mcjty.lostcities.LostCities;
+import mcjty.lostcities.config.LostCityConfiguration;
+import mcjty.lostcities.dimensions.world.ChunkPipeline;
+import mcjty.lostcities.dimensions.world.GenerationTimers;
+import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
+import mcjty.lostcities.varia.ChunkMap;
+import net.minecraft.init.Biomes;
+import net.minecraft.world.chunk.ChunkPrimer;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generate chunks without Minecraft and print a hash and the time for every chunk.
+ * Only the stages that don't need the World are done (see ChunkPipeline) so the hash
+ * covers the terrain and everything the Lost Cities adds to it.
+ *
+ * With -threads the same chunks are then prepared again on that many worker threads
+ * and compared with the chunks that were made one by one.
+ *
+ * Usage: GenerationHarness [-seed n] [-profile name] [-radius r] [-threads n] [-out file]
+ * or with gradle: gradlew headless -PharnessArgs="-profile onlycities -radius 16"
+ */
+public class GenerationHarness {
+
+    public static void main(String[] args) throws FileNotFoundException {
+        long seed = HeadlessWorld.DEFAULT_SEED;
+        String profile = "default";
+        int radius = 8;
+        int threads = 0;
+        PrintStream out = System.out;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                usage();
+            } else if ("-seed".equals(arg)) {
+                seed = Long.parseLong(args[++i]);
+            } else if ("-profile".equals(arg)) {
+                profile = args[++i];
+            } else if ("-radius".equals(arg)) {
+                radius = Integer.parseInt(args[++i]);
+            } else if ("-threads".equals(arg)) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-out".equals(arg)) {
+                out = new PrintStream(args[++i]);
+            } else {
+                usage();
+            }
+        }
+
+        LostCityChunkGenerator provider = HeadlessWorld.createGenerator(seed, profile, Biomes.PLAINS);
+        run(provider, radius, out);
+        int differ = threads > 0 ? compareThreaded(provider, radius, threads, out) : 0;
+        out.flush();
+        if (out != System.out) {
+            out.close();
+        }
+        System.exit(differ == 0 ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: GenerationHarness [-seed n] [-profile name] [-radius r] [-threads n] [-out file]");
+        System.exit(1);
+    }
+
+    /**
+     * Generate all chunks in a square around 0,0 (always in the same order). Every chunk
+     * is printed as 'x z hash microseconds' followed by a summary
+     */
+    public static void run(LostCityChunkGenerator provider, int radius, PrintStream out) {
+        ChunkPipeline pipeline = provider.getPipeline();
+        GenerationTimers.reset();
+
+        long start = System.nanoTime();
+        int count = 0;
+        for (int x = -radius; x <= radius; x++) {
+            for (int z = -radius; z <= radius; z++) {
+                long t = System.nanoTime();
+                ChunkPrimer primer = pipeline.prepare(x, z).getPrimer();
+                t = System.nanoTime() - t;
+                out.println(x + " " + z + " " + ChunkHashes.toString(ChunkHashes.hash(primer)) + " " + (t / 1000));
+                count++;
+            }
+        }
+        long total = System.nanoTime() - start;
+
+        out.println("# profile=" + provider.profile.getName() + " seed=" + provider.seed + " chunks=" + count);
+        out.println("# total=" + (total / 1000000) + "ms average=" + (total / count / 1000) + "us");
+        for (String line : GenerationTimers.getReport()) {
+            out.println("# " + line);
+        }
+        provider.getContext().clear();
+        LostCities.cleanCaches();
+    }
+
+    /**
+     * Prepare the chunks on worker threads (in the reverse order) and compare them with
+     * the same chunks made one by one on this thread. Returns the number of chunks that differ
+     */
+    public static int compareThreaded(LostCityChunkGenerator provider, int radius, int threads, PrintStream out) {
+        ChunkPipeline pipeline = provider.getPipeline();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int x = -radius; x <= radius; x++) {
+            for (int z = -radius; z <= radius; z++) {
+                expected.put(ChunkMap.toLong(x, z), ChunkHashes.hash(pipeline.prepare(x, z).getPrimer()));
+            }
+        }
+        provider.getContext().clear();
+        LostCities.cleanCaches();
+
+        ChunkPipeline.shutdown();
+        LostCityConfiguration.GENERATION_THREADS = threads;
+        for (int x = radius; x >= -radius; x--) {
+            for (int z = radius; z >= -radius; z--) {
+                pipeline.prepareAsync(x, z);
+            }
+        }
+        int differ = 0;
+        for (int x = -radius; x <= radius; x++) {
+            for (int z = -radius; z <= radius; z++) {
+                long hash = ChunkHashes.hash(pipeline.take(x, z).getPrimer());
+                if (hash != expected.get(ChunkMap.toLong(x, z))) {
+                    out.println("DIFFERENT " + x + " " + z + " " + ChunkHashes.toString(hash));
+                    differ++;
+                }
+            }
+        }
+        ChunkPipeline.shutdown();
+        out.println("# threads=" + threads + " different=" + differ);
+        provider.getContext().clear();
+        LostCities.cleanCaches();
+        return differ;
+    }
+}
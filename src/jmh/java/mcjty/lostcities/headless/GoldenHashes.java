@@ -0,0 +1,288 @@
+package mcjty.lostcities.headless;
+
+import mcjty.lostcities.LostCities;
+import mcjty.lostcities.config.LostCityConfiguration;
+import mcjty.lostcities.dimensions.world.LostCitiesTerrainGenerator;
+import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
+import mcjty.lostcities.dimensions.world.lost.BuildingInfo;
+import net.minecraft.init.Biomes;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.chunk.ChunkPrimer;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Regression corpus of chunk hashes. For every standard profile a fixed grid of chunks
+ * is generated (see GenerationHarness) and the hash of every chunk is recorded. Later
+ * builds are verified against that corpus so that optimizations can't silently change
+ * the generated worlds.
+ *
+ * Every profile is done twice: once on a world with only plains (the stages that don't
+ * need the World) and once on a world with the normal overworld biomes ('profile+biomes',
+ * with the biome blocks done as well). Caves, ravines and structures are not covered.
+ *
+ * The corpus has to be recorded with a build that makes the expected worlds. That can be a
+ * build from before the chunk pipeline (ChunkPipeline, LostCityContext) so everything that
+ * is newer is used through reflection. To record on such a build copy ChunkHashes,
+ * GoldenHashes, HeadlessWorld, HeadlessWorldProvider and the jmh part of build.gradle to it.
+ *
+ * Usage: GoldenHashes record|verify [file]
+ * or with gradle: gradlew golden -PgoldenArgs="verify"
+ */
+public class GoldenHashes {
+
+    public static final String DEFAULT_FILE = "src/jmh/resources/goldenhashes.txt";
+    public static final int RADIUS = 6;
+    // Extra chunks around the grid for which the heightmap is made in advance (see prepareLegacy())
+    private static final int HEIGHTMAP_MARGIN = 16;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            usage();
+        }
+        File file = new File(args.length > 1 ? args[1] : DEFAULT_FILE);
+        if ("record".equals(args[0])) {
+            record(file);
+            System.exit(0);
+        } else if ("verify".equals(args[0])) {
+            System.exit(verify(file) ? 0 : 1);
+        } else {
+            usage();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: GoldenHashes record|verify [file]");
+        System.exit(1);
+    }
+
+    private static void record(File file) throws IOException {
+        Map<String, Long> hashes = generate();
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try (PrintStream out = new PrintStream(file, "UTF-8")) {
+            out.println("# Lost Cities chunk hashes: profile x z hash (seed " + HeadlessWorld.DEFAULT_SEED + ", radius " + RADIUS + ")");
+            for (Map.Entry<String, Long> entry : hashes.entrySet()) {
+                out.println(entry.getKey() + " " + ChunkHashes.toString(entry.getValue()));
+            }
+        }
+        System.out.println("Recorded " + hashes.size() + " chunks in " + file);
+    }
+
+    private static boolean verify(File file) throws IOException {
+        if (!file.exists()) {
+            System.out.println("There is no corpus in " + file + "!");
+            System.out.println("Record one on a commit that generates the expected worlds (gradlew golden -PgoldenArgs=\"record\")");
+            System.out.println("and commit " + DEFAULT_FILE + " so that later changes can be verified against it");
+            return false;
+        }
+        Map<String, Long> expected = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int idx = line.lastIndexOf(' ');
+            expected.put(line.substring(0, idx), Long.parseUnsignedLong(line.substring(idx + 1), 16));
+        }
+
+        Map<String, Long> actual = generate();
+        Map<String, Integer> failures = new TreeMap<>();
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            Long hash = actual.get(entry.getKey());
+            if (hash == null || hash.longValue() != entry.getValue()) {
+                System.out.println("MISMATCH " + entry.getKey() + " expected " + ChunkHashes.toString(entry.getValue())
+                        + " got " + (hash == null ? "nothing" : ChunkHashes.toString(hash)));
+                String profile = entry.getKey().substring(0, entry.getKey().indexOf(' '));
+                failures.merge(profile, 1, Integer::sum);
+            }
+        }
+        for (String key : actual.keySet()) {
+            if (!expected.containsKey(key)) {
+                System.out.println("MISSING " + key + " is not in the corpus (record it again?)");
+            }
+        }
+
+        if (failures.isEmpty()) {
+            System.out.println("All " + expected.size() + " chunks match");
+            return true;
+        }
+        for (Map.Entry<String, Integer> entry : failures.entrySet()) {
+            System.out.println(entry.getKey() + ": " + entry.getValue() + " chunks differ");
+        }
+        return false;
+    }
+
+    // Generate the chunks of all standard profiles. Keys are 'profile x z'
+    private static Map<String, Long> generate() {
+        HeadlessWorld.setup();
+        List<String> profiles = new ArrayList<>(LostCityConfiguration.standardProfiles.keySet());
+        Collections.sort(profiles);
+        if (isLegacy()) {
+            System.out.println("There is no chunk pipeline in this build. Chunks are made like provideChunk() did before it");
+        }
+
+        Map<String, Long> hashes = new LinkedHashMap<>();
+        for (String profile : profiles) {
+            if (!HeadlessWorld.isStandalone(profile)) {
+                continue;
+            }
+            System.out.println("Generating profile " + profile);
+            LostCityChunkGenerator provider = HeadlessWorld.createGenerator(HeadlessWorld.DEFAULT_SEED, profile, Biomes.PLAINS);
+            prepareLegacy(provider);
+            for (int x = -RADIUS; x <= RADIUS; x++) {
+                for (int z = -RADIUS; z <= RADIUS; z++) {
+                    hashes.put(profile + " " + x + " " + z, ChunkHashes.hash(prepare(provider, x, z).primer));
+                }
+            }
+            clearCaches(provider);
+
+            System.out.println("Generating profile " + profile + " with biomes");
+            provider = HeadlessWorld.createGenerator(HeadlessWorld.DEFAULT_SEED, profile, null);
+            prepareLegacy(provider);
+            for (int x = -RADIUS; x <= RADIUS; x++) {
+                for (int z = -RADIUS; z <= RADIUS; z++) {
+                    hashes.put(profile + "+biomes " + x + " " + z, ChunkHashes.hash(generateWithBiomes(provider, x, z)));
+                }
+            }
+            clearCaches(provider);
+        }
+        return hashes;
+    }
+
+    // The stages that don't need the World followed by the biome blocks (like provideChunk())
+    private static ChunkPrimer generateWithBiomes(LostCityChunkGenerator provider, int chunkX, int chunkZ) {
+        Prepared prepared = prepare(provider, chunkX, chunkZ);
+        Biome[] biomes = provider.worldObj.getBiomeProvider().getBiomes(null, chunkX * 16, chunkZ * 16, 16, 16);
+        Object terrainGenerator = getTerrainGenerator(provider);
+        if (prepared.random == null) {
+            // The old generator continues with provider.rand
+            invoke(terrainGenerator, "replaceBlocksForBiome", new Class<?>[] { int.class, int.class, ChunkPrimer.class, Biome[].class },
+                    chunkX, chunkZ, prepared.primer, biomes);
+        } else {
+            invoke(terrainGenerator, "replaceBlocksForBiome", new Class<?>[] { int.class, int.class, ChunkPrimer.class, Biome[].class, Random.class },
+                    chunkX, chunkZ, prepared.primer, biomes, prepared.random);
+        }
+        return prepared.primer;
+    }
+
+    // Without a pipeline generate() used the random of the chunk generator and a static fast
+    // random that were shared by all chunks. Here these are seeded for every chunk like the
+    // pipeline does. The old generator also reseeded its random when it needed the heightmap
+    // of a chunk that wasn't made yet so all heightmaps are made in advance (HEIGHTMAP_MARGIN)
+
+    private static class Prepared {
+        private final ChunkPrimer primer;
+        private final Random random;        // null if the chunk generator's random is used
+
+        private Prepared(ChunkPrimer primer, Random random) {
+            this.primer = primer;
+            this.random = random;
+        }
+    }
+
+    private static boolean isLegacy() {
+        return findMethod(LostCityChunkGenerator.class, "getPipeline") == null;
+    }
+
+    private static Prepared prepare(LostCityChunkGenerator provider, int chunkX, int chunkZ) {
+        if (!isLegacy()) {
+            Object pipeline = invoke(provider, "getPipeline", new Class<?>[0]);
+            Object prepared = invoke(pipeline, "prepare", new Class<?>[] { int.class, int.class }, chunkX, chunkZ);
+            return new Prepared((ChunkPrimer) invoke(prepared, "getPrimer", new Class<?>[0]),
+                    (Random) invoke(prepared, "getRandom", new Class<?>[0]));
+        }
+
+        LostCitiesTerrainGenerator.setupChars();
+        ChunkPrimer primer = BuildingInfo.isCity(chunkX, chunkZ, provider) ? new ChunkPrimer() : provider.generatePrimer(chunkX, chunkZ);
+        long seed = chunkX * 341873128712L + chunkZ * 132897987541L;
+        provider.rand.setSeed(seed);
+        setField(LostCitiesTerrainGenerator.class, null, "g_seed", (int) (provider.seed + seed));
+        Map<?, ?> heightmaps = (Map<?, ?>) getField(LostCityChunkGenerator.class, provider, "cachedHeightmaps");
+        int count = heightmaps.size();
+        invoke(getTerrainGenerator(provider), "generate", new Class<?>[] { int.class, int.class, ChunkPrimer.class }, chunkX, chunkZ, primer);
+        if (heightmaps.size() != count) {
+            throw new IllegalStateException("Chunk " + chunkX + "," + chunkZ + " needed a heightmap that wasn't made in advance. Increase HEIGHTMAP_MARGIN");
+        }
+        return new Prepared(primer, null);
+    }
+
+    // Make the heightmaps around the grid (see above). The primers that were made for these
+    // are dropped again. These are simply made again when the chunk is generated
+    private static void prepareLegacy(LostCityChunkGenerator provider) {
+        if (!isLegacy()) {
+            return;
+        }
+        int radius = RADIUS + HEIGHTMAP_MARGIN;
+        for (int x = -radius; x <= radius; x++) {
+            for (int z = -radius; z <= radius; z++) {
+                provider.getHeightmap(x, z);
+            }
+        }
+        ((Map<?, ?>) getField(LostCityChunkGenerator.class, provider, "cachedPrimers")).clear();
+    }
+
+    private static void clearCaches(LostCityChunkGenerator provider) {
+        if (findMethod(LostCityChunkGenerator.class, "getContext") != null) {
+            invoke(invoke(provider, "getContext", new Class<?>[0]), "clear", new Class<?>[0]);
+        }
+        if (findMethod(LostCities.class, "cleanCaches") != null) {
+            invoke(null, LostCities.class, "cleanCaches", new Class<?>[0]);
+        }
+    }
+
+    private static Object getTerrainGenerator(LostCityChunkGenerator provider) {
+        if (findMethod(LostCityChunkGenerator.class, "getTerrainGenerator") != null) {
+            return invoke(provider, "getTerrainGenerator", new Class<?>[0]);
+        }
+        return getField(LostCityChunkGenerator.class, provider, "terrainGenerator");
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(name)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static Object invoke(Object object, String name, Class<?>[] types, Object... args) {
+        return invoke(object, object.getClass(), name, types, args);
+    }
+
+    private static Object invoke(Object object, Class<?> type, String name, Class<?>[] types, Object... args) {
+        try {
+            return type.getMethod(name, types).invoke(object, args);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Object getField(Class<?> type, Object object, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(object);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void setField(Class<?> type, Object object, String name, Object value) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(object, value);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package mcjty.lostcities.headless;
+
+import mcjty.lostcities.LostCities;
+import mcjty.lostcities.config.LostCityConfiguration;
+import mcjty.lostcities.config.LostCityProfile;
+import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
+import mcjty.lostcities.dimensions.world.lost.cityassets.AssetRegistries;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.profiler.Profiler;
+import net.minecraft.world.GameType;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldSettings;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.chunk.IChunkProvider;
+import net.minecraft.world.storage.WorldInfo;
+import net.minecraftforge.common.config.Configuration;
+import org.apache.logging.log4j.LogManager;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * A World that only exists to run the Lost City chunk generator without a Minecraft
+ * server (benchmarks and tools). It has no chunks and either the same biome everywhere
+ * or the normal overworld biomes.
+ * Every generator keeps its caches in its own LostCityContext so several headless
+ * worlds can be used side by side
+ */
+public class HeadlessWorld extends World {
+
+    public static final long DEFAULT_SEED = 123456789L;
+
+    private static boolean initialized = false;
+    private static int nextDimension = 1000;
+
+    private HeadlessWorld(WorldInfo info, HeadlessWorldProvider provider) {
+        super(null, info, provider, new Profiler(), false);
+        provider.registerWorld(this);
+    }
+
+    @Override
+    protected IChunkProvider createChunkProvider() {
+        return null;
+    }
+
+    @Override
+    protected boolean isChunkLoaded(int x, int z, boolean allowEmpty) {
+        return false;
+    }
+
+    /**
+     * Make a chunk generator for a seed and profile on a new headless world. If 'biome'
+     * is null the world has the normal overworld biomes (with the allowed biome factors
+     * of the profile)
+     */
+    public static synchronized LostCityChunkGenerator createGenerator(long seed, String profile, @Nullable Biome biome) {
+        setup();
+        if (!LostCityConfiguration.profiles.containsKey(profile)) {
+            throw new RuntimeException("Unknown profile '" + profile + "'!");
+        }
+        WorldSettings settings = new WorldSettings(seed, GameType.SURVIVAL, true, false, WorldType.DEFAULT);
+        settings.setGeneratorOptions("{\"profile\":\"" + profile + "\"}");
+        HeadlessWorldProvider provider = new HeadlessWorldProvider(biome, LostCityConfiguration.profiles.get(profile).ALLOWED_BIOME_FACTORS);
+        provider.setDimension(nextDimension++);
+        HeadlessWorld world = new HeadlessWorld(new WorldInfo(settings, "headless"), provider);
+        return new LostCityChunkGenerator(world, seed);
+    }
+
+    /**
+     * Setup Minecraft, the profiles (with their default settings) and the assets.
+     * This is only done once
+     */
+    public static synchronized void setup() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+
+        Bootstrap.register();
+        if (LostCities.logger == null) {
+            LostCities.logger = LogManager.getLogger(LostCities.MODID);
+        }
+
+        // Configuration files are only created so that the profiles get their defaults
+        File dir = new File("build", "headless");
+        String[] profileList = LostCityConfiguration.init(new Configuration(new File(dir, "general.cfg")));
+        for (String name : profileList) {
+            LostCityProfile profile = new LostCityProfile(name, LostCityConfiguration.standardProfiles.get(name));
+            profile.init(new Configuration(new File(dir, "profile_" + name + ".cfg")));
+            LostCityConfiguration.profiles.put(name, profile);
+        }
+
+        // Only the assets that are part of the mod are used. These are loaded directly (without
+        // the asset cache) so that this also works with older builds (see GoldenHashes)
+        AssetRegistries.reset();
+        for (String path : LostCityConfiguration.ASSETS) {
+            if (path.startsWith("/")) {
+                InputStream inputstream = LostCities.class.getResourceAsStream(path);
+                AssetRegistries.load(inputstream, path);
+            }
+        }
+    }
+
+    /**
+     * Return true if this profile can be used without other mods
+     */
+    public static boolean isStandalone(String profile) {
+        return !"chisel".equals(profile);
+    }
+}
@@ -0,0 +1,42 @@
+package mcjty.lostcities.headless;
+
+import mcjty.lib.compat.CompatWorldProvider;
+import mcjty.lostcities.dimensions.world.LostWorldFilteredBiomeProvider;
+import mcjty.lostcities.dimensions.world.LostWorldSingleBiomeProvider;
+import net.minecraft.world.DimensionType;
+import net.minecraft.world.biome.Biome;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * World provider for the HeadlessWorld. Uses a single biome or (if there is no biome)
+ * the normal overworld biomes filtered like in a Lost City world
+ */
+public class HeadlessWorldProvider extends CompatWorldProvider {
+
+    private final Biome biome;
+    private final String[] allowedBiomeFactors;
+
+    public HeadlessWorldProvider(@Nullable Biome biome, String[] allowedBiomeFactors) {
+        this.biome = biome;
+        this.allowedBiomeFactors = allowedBiomeFactors;
+    }
+
+    @Override
+    @Nonnull
+    public DimensionType getDimensionType() {
+        return DimensionType.OVERWORLD;
+    }
+
+    @Override
+    protected void initialize() {
+        super.initialize();
+        if (biome != null) {
+            biomeProvider = new LostWorldSingleBiomeProvider(biome);
+        } else if (allowedBiomeFactors.length > 0) {
+            // Same as LostWorldType.getBiomeProvider()
+            biomeProvider = new LostWorldFilteredBiomeProvider(biomeProvider, allowedBiomeFactors);
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package mcjty.lostcities;
 
 import mcjty.lostcities.config.LostCityConfiguration;
+import mcjty.lostcities.dimensions.world.GenerationTimers;
+import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
+import mcjty.lostcities.dimensions.world.Pregenerator;
 import mcjty.lostcities.varia.CustomTeleporter;
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockBed;
@@ -13,12 +16,33 @@ import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 import net.minecraftforge.common.DimensionManager;
 import net.minecraftforge.event.entity.player.PlayerSleepInBedEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fml.common.eventhandler.Event;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
 import net.minecraftforge.fml.common.registry.ForgeRegistries;
 
 public class ForgeEventHandlers {
 
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase == TickEvent.Phase.END) {
+            Pregenerator.onServerTick();
+            GenerationTimers.onServerTick();
+        }
+    }
+
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event) {
+        World world = event.getWorld();
+        if (!world.isRemote && ((WorldServer) world).getChunkProvider().chunkGenerator instanceof LostCityChunkGenerator) {
+            // Release the prepared chunks and the caches of this dimension
+            LostCityChunkGenerator generator = (LostCityChunkGenerator) ((WorldServer) world).getChunkProvider().chunkGenerator;
+            generator.getPipeline().clear();
+            generator.getContext().clear();
+        }
+    }
+
     @SubscribeEvent
     public void onPlayerSleepInBedEvent(PlayerSleepInBedEvent event) {
         if (LostCityConfiguration.DIMENSION_ID == -1) {
@@ -4,7 +4,11 @@ import mcjty.lostcities.commands.CommandBuildPart;
 import mcjty.lostcities.commands.CommandDebug;
 import mcjty.lostcities.commands.CommandExportBuilding;
 import mcjty.lostcities.commands.CommandExportPart;
-import mcjty.lostcities.dimensions.world.lost.*;
+import mcjty.lostcities.commands.CommandPregen;
+import mcjty.lostcities.commands.CommandStats;
+import mcjty.lostcities.dimensions.world.ChunkPipeline;
+import mcjty.lostcities.dimensions.world.Pregenerator;
+import mcjty.lostcities.dimensions.world.lost.cityassets.PaletteCache;
 import mcjty.lostcities.proxy.CommonProxy;
 import net.minecraftforge.fml.common.Loader;
 import net.minecraftforge.fml.common.Mod;
@@ -66,20 +70,21 @@ public class LostCities {
         event.registerServerCommand(new CommandExportBuilding());
         event.registerServerCommand(new CommandExportPart());
         event.registerServerCommand(new CommandBuildPart());
+        event.registerServerCommand(new CommandPregen());
+        event.registerServerCommand(new CommandStats());
         cleanCaches();
     }
 
     @Mod.EventHandler
     public void serverStopped(FMLServerStoppedEvent event) {
+        Pregenerator.stop();
+        ChunkPipeline.shutdown();
         cleanCaches();
     }
 
-    private void cleanCaches() {
-        BuildingInfo.cleanCache();
-        Highway.cleanCache();
-        Railway.cleanCache();
-        BiomeInfo.cleanCache();
-        City.cleanCache();
+    public static void cleanCaches() {
+        // Everything that belongs to a single dimension is in the LostCityContext of its chunk generator
+        PaletteCache.cleanCache();
     }
 
     /**
@@ -1,8 +1,10 @@
 package mcjty.lostcities.commands;
 
 import mcjty.lib.compat.CompatCommand;
+import mcjty.lostcities.dimensions.world.GenerationTimers;
 import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
 import mcjty.lostcities.dimensions.world.lost.BuildingInfo;
+import mcjty.lostcities.dimensions.world.lost.cityassets.PaletteCache;
 import mcjty.lostcities.dimensions.world.lost.Railway;
 import net.minecraft.command.CommandException;
 import net.minecraft.command.ICommand;
@@ -57,8 +59,17 @@ public class CommandDebug implements CompatCommand {
             System.out.println("railInfo.getLevel() = " + railInfo.getLevel());
             System.out.println("railInfo.getDirection() = " + railInfo.getDirection());
             System.out.println("railInfo.getRails() = " + railInfo.getRails());
-            System.out.println("info.getChestTodo().size() = " + info.getChestTodo().size());
-            System.out.println("info.getMobSpawnerTodo().size() = " + info.getMobSpawnerTodo().size());
+            System.out.println("info.getChestTodoCount() = " + info.getChestTodoCount());
+            System.out.println("info.getMobSpawnerTodoCount() = " + info.getMobSpawnerTodoCount());
+            System.out.println("context: " + info.provider.getContext().getStats());
+            System.out.println("paletteCache: " + PaletteCache.getStats());
+            System.out.println("timers:");
+            for (String line : GenerationTimers.getReport()) {
+                System.out.println("    " + line);
+            }
+            System.out.println("generator caches: " + info.provider.getCacheStats());
+            info.provider.reportCaches((name, entries, bytes, budget) ->
+                    System.out.println("    " + name + ": " + (bytes / 1024) + "KB of " + (budget / 1024) + "KB (" + entries + " entries)"));
         }
     }
 
@@ -0,0 +1,148 @@
+package mcjty.lostcities.commands;
+
+import mcjty.lib.compat.CompatCommand;
+import mcjty.lib.tools.ChatTools;
+import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
+import mcjty.lostcities.dimensions.world.Pregenerator;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommand;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+
+public class CommandPregen implements CompatCommand {
+
+    @Override
+    public String getName() {
+        return "lc_pregen";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return getName() + " start <radius> [spiral|region] [dimension] | resume [dimension] | stop | status";
+    }
+
+    @Override
+    public List<String> getAliases() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length < 1) {
+            ChatTools.addChatMessage(sender, new TextComponentString(getUsage(sender)));
+            return;
+        }
+        String cmd = args[0];
+        if ("start".equals(cmd)) {
+            if (args.length < 2) {
+                ChatTools.addChatMessage(sender, new TextComponentString(getUsage(sender)));
+                return;
+            }
+            if (!checkNotRunning(sender)) {
+                return;
+            }
+            int radius;
+            Pregenerator.Order order = Pregenerator.Order.SPIRAL;
+            try {
+                radius = Integer.parseInt(args[1]);
+                if (args.length > 2) {
+                    order = Pregenerator.Order.valueOf(args[2].toUpperCase());
+                }
+            } catch (IllegalArgumentException e) {
+                ChatTools.addChatMessage(sender, new TextComponentString(getUsage(sender)));
+                return;
+            }
+            WorldServer world = getWorld(sender, args, 3);
+            if (world == null) {
+                return;
+            }
+            BlockPos center = sender.getPosition();
+            Pregenerator.start(world, center.getX() >> 4, center.getZ() >> 4, radius, order, sender);
+        } else if ("resume".equals(cmd)) {
+            if (!checkNotRunning(sender)) {
+                return;
+            }
+            WorldServer world = getWorld(sender, args, 1);
+            if (world == null) {
+                return;
+            }
+            if (!Pregenerator.resume(world, sender)) {
+                ChatTools.addChatMessage(sender, new TextComponentString("There is no pregeneration to resume for this dimension!"));
+            }
+        } else if ("stop".equals(cmd)) {
+            if (Pregenerator.getCurrent() == null) {
+                ChatTools.addChatMessage(sender, new TextComponentString("No pregeneration is running!"));
+            } else {
+                Pregenerator.stop();
+            }
+        } else if ("status".equals(cmd)) {
+            Pregenerator current = Pregenerator.getCurrent();
+            if (current == null) {
+                ChatTools.addChatMessage(sender, new TextComponentString("No pregeneration is running!"));
+            } else {
+                ChatTools.addChatMessage(sender, new TextComponentString(current.getStatus()));
+            }
+        } else {
+            ChatTools.addChatMessage(sender, new TextComponentString(getUsage(sender)));
+        }
+    }
+
+    private static boolean checkNotRunning(ICommandSender sender) {
+        if (Pregenerator.getCurrent() != null) {
+            ChatTools.addChatMessage(sender, new TextComponentString("A pregeneration is already running!"));
+            return false;
+        }
+        return true;
+    }
+
+    // Get the world from the dimension argument at 'idx' or else the world of the sender
+    @Nullable
+    private static WorldServer getWorld(ICommandSender sender, String[] args, int idx) {
+        WorldServer world;
+        if (args.length > idx) {
+            int dimension;
+            try {
+                dimension = Integer.parseInt(args[idx]);
+            } catch (NumberFormatException e) {
+                ChatTools.addChatMessage(sender, new TextComponentString("Bad dimension '" + args[idx] + "'!"));
+                return null;
+            }
+            world = DimensionManager.getWorld(dimension);
+        } else {
+            world = (WorldServer) sender.getEntityWorld();
+        }
+        if (world == null || !(world.getChunkProvider().chunkGenerator instanceof LostCityChunkGenerator)) {
+            ChatTools.addChatMessage(sender, new TextComponentString("This is not a loaded Lost City dimension!"));
+            return null;
+        }
+        return world;
+    }
+
+    @Override
+    public boolean checkPermission(MinecraftServer server, ICommandSender sender) {
+        return sender.canUseCommand(2, getName());
+    }
+
+    @Override
+    public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args, @Nullable BlockPos targetPos) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isUsernameIndex(String[] args, int index) {
+        return false;
+    }
+
+    @Override
+    public int compareTo(ICommand o) {
+        return getName().compareTo(o.getName());
+    }
+}
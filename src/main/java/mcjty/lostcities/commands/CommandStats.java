@@ -0,0 +1,73 @@
+package mcjty.lostcities.commands;
+
+import mcjty.lib.compat.CompatCommand;
+import mcjty.lib.tools.ChatTools;
+import mcjty.lostcities.dimensions.world.GenerationTimers;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommand;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+
+public class CommandStats implements CompatCommand {
+
+    @Override
+    public String getName() {
+        return "lc_stats";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return getName() + " [reset]";
+    }
+
+    @Override
+    public List<String> getAliases() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length > 0) {
+            if ("reset".equals(args[0])) {
+                GenerationTimers.reset();
+                ChatTools.addChatMessage(sender, new TextComponentString("Generation timers are reset"));
+            } else {
+                ChatTools.addChatMessage(sender, new TextComponentString(getUsage(sender)));
+            }
+            return;
+        }
+        List<String> report = GenerationTimers.getReport();
+        if (report.isEmpty()) {
+            ChatTools.addChatMessage(sender, new TextComponentString("Nothing was generated yet (or 'generationTimers' is off)"));
+        }
+        for (String line : report) {
+            ChatTools.addChatMessage(sender, new TextComponentString(line));
+        }
+    }
+
+    @Override
+    public boolean checkPermission(MinecraftServer server, ICommandSender sender) {
+        return sender.canUseCommand(2, getName());
+    }
+
+    @Override
+    public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args, @Nullable BlockPos targetPos) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isUsernameIndex(String[] args, int index) {
+        return false;
+    }
+
+    @Override
+    public int compareTo(ICommand o) {
+        return getName().compareTo(o.getName());
+    }
+}
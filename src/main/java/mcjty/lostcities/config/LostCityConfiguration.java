@@ -50,6 +50,11 @@ public class LostCityConfiguration {
     public static boolean DIMENSION_BOP = true;
 
     public static boolean DEBUG = false;
+    public static boolean ASSET_CACHE = true;
+    public static boolean LAZY_ASSETS = true;
+    public static int GENERATION_THREADS = 0;
+    public static boolean GENERATION_TIMERS = true;
+    public static int STATS_CSV_INTERVAL = 0;
 
     public static String SPECIAL_BED_BLOCK = Blocks.DIAMOND_BLOCK.getRegistryName().toString();
 
@@ -113,6 +118,12 @@ public class LostCityConfiguration {
         SPECIAL_BED_BLOCK = cfg.getString("specialBedBlock", CATEGORY_GENERAL, SPECIAL_BED_BLOCK, "Block to put underneath a bed so that it qualifies as a teleporter bed");
 
         DEBUG = cfg.getBoolean("debug", CATEGORY_GENERAL, DEBUG, "Enable debugging/logging");
+        ASSET_CACHE = cfg.getBoolean("assetCache", CATEGORY_GENERAL, ASSET_CACHE, "If true the parsed asset libraries are cached in a binary file in the config directory. The cache is rebuilt automatically when an asset library changes");
+        LAZY_ASSETS = cfg.getBoolean("lazyAssets", CATEGORY_GENERAL, LAZY_ASSETS, "If true assets are only loaded when they are first used. Set to false to load (and check) all assets at startup");
+        GENERATION_THREADS = cfg.getInt("generationThreads", CATEGORY_GENERAL, GENERATION_THREADS, 0, 64, "Number of worker threads that can prepare chunks ahead of time. With 0 everything is done on the server thread (pregeneration then starts one thread per core of its own). Worker threads are not used if other mods listen to Lost City events");
+
+        GENERATION_TIMERS = cfg.getBoolean("generationTimers", CATEGORY_GENERAL, GENERATION_TIMERS, "If true the time spent in the parts of chunk generation is measured (see lc_stats)");
+        STATS_CSV_INTERVAL = cfg.getInt("statsCsvInterval", CATEGORY_GENERAL, STATS_CSV_INTERVAL, 0, 86400, "If not 0 the generation timers are appended to 'lostcities/stats.csv' in the config directory every this many seconds");
 
         return profileList;
     }
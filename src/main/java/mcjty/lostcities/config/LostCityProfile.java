@@ -126,6 +126,14 @@ public class LostCityProfile {
 
     public int MAX_CAVE_HEIGHT = 128;
 
+    public static final int DEFAULT_CACHE_SIZE = 20000;
+
+    public int BUILDINGINFO_CACHE_SIZE = DEFAULT_CACHE_SIZE;
+    public int CHARACTERISTICS_CACHE_SIZE = DEFAULT_CACHE_SIZE;
+    public int PRIMER_CACHE_MB = 64;
+    public int HEIGHTMAP_CACHE_MB = 8;
+    public boolean FAST_RANDOM = false;
+
     public boolean PREVENT_VILLAGES_IN_CITIES = true;
     public boolean PREVENT_LAKES_RAVINES_IN_CITIES = false;
 
@@ -191,6 +199,17 @@ public class LostCityProfile {
         WATERLEVEL_OFFSET = cfg.getInt("waterLevelOffset", categoryLostcity, inheritFrom.orElse(this).WATERLEVEL_OFFSET, -100, 100, "How much lower the water level is compared to the ground level (63)");
         WATERLEVEL = GROUNDLEVEL - WATERLEVEL_OFFSET;
 
+        BUILDINGINFO_CACHE_SIZE = cfg.getInt("buildingInfoCacheSize", categoryLostcity, inheritFrom.orElse(this).BUILDINGINFO_CACHE_SIZE, 1000, 10000000,
+                "The maximum number of chunk building infos kept in memory (per dimension). Older entries are dropped and recalculated when needed");
+        CHARACTERISTICS_CACHE_SIZE = cfg.getInt("characteristicsCacheSize", categoryLostcity, inheritFrom.orElse(this).CHARACTERISTICS_CACHE_SIZE, 1000, 10000000,
+                "The maximum number of chunk characteristics kept in memory (per dimension). Older entries are dropped and recalculated when needed");
+        PRIMER_CACHE_MB = cfg.getInt("primerCacheMB", categoryLostcity, inheritFrom.orElse(this).PRIMER_CACHE_MB, 1, 4096,
+                "Memory (in MB, per dimension) for terrain that is calculated before its chunk is generated. Least recently used terrain is dropped and recalculated when needed");
+        HEIGHTMAP_CACHE_MB = cfg.getInt("heightmapCacheMB", categoryLostcity, inheritFrom.orElse(this).HEIGHTMAP_CACHE_MB, 1, 1024,
+                "Memory (in MB, per dimension) for chunk heightmaps. Least recently used heightmaps are dropped and recalculated when needed");
+        FAST_RANDOM = cfg.getBoolean("fastRandom", categoryLostcity, inheritFrom.orElse(this).FAST_RANDOM,
+                "If true a faster random generator is used for the decisions per chunk (cities, buildings, explosions, railways). This changes the generated world so only use this for new worlds");
+
 
         CHEST_WITHOUT_LOOT_CHANCE = cfg.getFloat("chestWithoutLootChance", categoryLostcity, inheritFrom.orElse(this).CHEST_WITHOUT_LOOT_CHANCE, 0.0f, 1.0f, "The chance that a chest will have no loot");
         BUILDING_WITHOUT_LOOT_CHANCE = cfg.getFloat("buildingWithoutLootChance", categoryLostcity, inheritFrom.orElse(this).BUILDING_WITHOUT_LOOT_CHANCE, 0.0f, 1.0f, "The chance that a building will have no loot and no spawners");
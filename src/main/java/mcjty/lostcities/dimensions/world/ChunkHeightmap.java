@@ -7,8 +7,19 @@ import net.minecraft.world.chunk.ChunkPrimer;
  * A heightmap for a chunk
  */
 public class ChunkHeightmap {
+
+    // Estimated memory used by a heightmap (including object and array headers)
+    public static final int MEMORY = 16*16 + 48;
+
     private byte heightmap[] = new byte[16*16];
 
+    /**
+     * Make a heightmap from heights that are already calculated (indexed with z*16+x)
+     */
+    public ChunkHeightmap(byte[] heightmap) {
+        this.heightmap = heightmap;
+    }
+
     public ChunkHeightmap(ChunkPrimer primer) {
         char air = LostCitiesTerrainGenerator.airChar;
         for (int x = 0 ; x < 16 ; x++) {
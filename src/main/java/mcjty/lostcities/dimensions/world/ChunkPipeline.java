@@ -0,0 +1,252 @@
+package mcjty.lostcities.dimensions.world;
+
+import mcjty.lostcities.LostCities;
+import mcjty.lostcities.api.LostCityEvent;
+import mcjty.lostcities.config.LostCityConfiguration;
+import mcjty.lostcities.dimensions.world.lost.BuildingInfo;
+import mcjty.lostcities.varia.ChunkMap;
+import net.minecraft.world.chunk.ChunkPrimer;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.common.eventhandler.Event;
+import net.minecraftforge.fml.common.eventhandler.EventBus;
+import net.minecraftforge.fml.relauncher.ReflectionHelper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The stages that make a chunk. The first stages (up to and including CITY_BLOCKS) only
+ * work on the primer and our own (thread safe) caches so they can be prepared ahead on
+ * a worker thread with prepareAsync(). The other stages need the World and always run
+ * on the thread that calls provideChunk(). The stages (and their timers) are in
+ * GenerationTimers.Timer.
+ */
+public class ChunkPipeline {
+
+    private static ExecutorService executor = null;
+    private static Boolean eventListeners = null;
+
+    private final LostCityChunkGenerator provider;
+
+    // Maximum number of prepared chunks that are not used yet (a primer is about 128KB).
+    // When there are more the oldest are dropped. These were probably loaded from disk
+    // instead and otherwise provideChunk() simply makes them again
+    public static final int MAX_PREPARED = 512;
+
+    // Chunks that are being prepared or are ready to be used by provideChunk() (in the
+    // order they were started). Guarded by itself
+    private final LinkedHashMap<Long, Future<PreparedChunk>> prepared = new LinkedHashMap<Long, Future<PreparedChunk>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Future<PreparedChunk>> eldest) {
+            if (size() > MAX_PREPARED) {
+                eldest.getValue().cancel(false);
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * The primer of a chunk with the stages that don't need the World done and the random
+     * of that chunk (the biome blocks continue with the same random)
+     */
+    public static class PreparedChunk {
+        private final ChunkPrimer primer;
+        private final Random random;
+
+        public PreparedChunk(ChunkPrimer primer, Random random) {
+            this.primer = primer;
+            this.random = random;
+        }
+
+        public ChunkPrimer getPrimer() {
+            return primer;
+        }
+
+        public Random getRandom() {
+            return random;
+        }
+    }
+
+    public ChunkPipeline(LostCityChunkGenerator provider) {
+        this.provider = provider;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null && LostCityConfiguration.GENERATION_THREADS > 0) {
+            executor = createExecutor(LostCityConfiguration.GENERATION_THREADS, "LostCities Generator");
+        }
+        return executor;
+    }
+
+    /**
+     * Create a pool of (daemon) worker threads for prepareAsync()
+     */
+    public static ExecutorService createExecutor(int threads, String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, name + " " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Return true if chunks can be prepared on worker threads (see 'generationThreads' in the config)
+     */
+    public boolean hasWorkers() {
+        return getExecutor() != null && canUseWorkers();
+    }
+
+    /**
+     * Return false if chunks must not be prepared on worker threads at all (see hasEventListeners())
+     */
+    public static boolean canUseWorkers() {
+        return !hasEventListeners();
+    }
+
+    // generate() posts LostCityEvents (with the World) to the event bus. Other mods expect
+    // these on the server thread so we don't use worker threads if there are listeners.
+    // Listeners are registered at startup so this is only checked once
+    private static synchronized boolean hasEventListeners() {
+        if (eventListeners == null) {
+            eventListeners = findEventListeners();
+        }
+        return eventListeners;
+    }
+
+    private static boolean findEventListeners() {
+        try {
+            Integer busID = ReflectionHelper.getPrivateValue(EventBus.class, MinecraftForge.EVENT_BUS, "busID");
+            Event[] events = new Event[] {
+                    new LostCityEvent.CharacteristicsEvent(null, null, 0, 0, null),
+                    new LostCityEvent.PreGenCityChunkEvent(null, null, 0, 0, null),
+                    new LostCityEvent.PostGenCityChunkEvent(null, null, 0, 0, null),
+                    new LostCityEvent.PreExplosionEvent(null, null, 0, 0, null)
+            };
+            for (Event event : events) {
+                if (event.getListenerList().getListeners(busID).length > 0) {
+                    LostCities.logger.info("Another mod listens to " + event.getClass().getSimpleName() + ". Chunks are not prepared on worker threads");
+                    return true;
+                }
+            }
+            return false;
+        } catch (RuntimeException e) {
+            LostCities.logger.warn("Can't check the listeners of the Lost City events. Chunks are not prepared on worker threads", e);
+            return true;
+        }
+    }
+
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Run the stages that don't need the World for this chunk. Normally this is done
+     * by provideChunk() but it can be called earlier (and on another thread)
+     * with prepareAsync()
+     */
+    public PreparedChunk prepare(int chunkX, int chunkZ) {
+        // This can be called before the first provideChunk()
+        LostCitiesTerrainGenerator.setupChars();
+        long start = GenerationTimers.start();
+        BuildingInfo info = BuildingInfo.getBuildingInfo(chunkX, chunkZ, provider);
+        GenerationTimers.record(GenerationTimers.Timer.CITY_LAYOUT, start);
+
+        ChunkPrimer chunkprimer;
+        if (info.isCity) {
+            chunkprimer = new ChunkPrimer();
+        } else {
+            start = GenerationTimers.start();
+            chunkprimer = provider.getCorePrimer(chunkX, chunkZ);
+            GenerationTimers.record(GenerationTimers.Timer.CORE_TERRAIN, start);
+        }
+
+        // Every chunk has its own random so that the result doesn't depend on the thread
+        // or on the order in which chunks are made
+        Random random = new Random(chunkX * 341873128712L + chunkZ * 132897987541L);
+        start = GenerationTimers.start();
+        provider.getTerrainGenerator().generate(chunkX, chunkZ, chunkprimer, random);
+        GenerationTimers.record(GenerationTimers.Timer.CITY_BLOCKS, start);
+        return new PreparedChunk(chunkprimer, random);
+    }
+
+    /**
+     * Start preparing a chunk on a worker thread. Returns false if there are no worker
+     * threads (see hasWorkers()) or if the chunk is already prepared
+     */
+    public boolean prepareAsync(int chunkX, int chunkZ) {
+        return prepareAsync(chunkX, chunkZ, getExecutor());
+    }
+
+    /**
+     * Start preparing a chunk on one of the given worker threads
+     */
+    public boolean prepareAsync(int chunkX, int chunkZ, ExecutorService service) {
+        if (service == null || !canUseWorkers()) {
+            return false;
+        }
+        FutureTask<PreparedChunk> task = new FutureTask<>(() -> prepare(chunkX, chunkZ));
+        synchronized (prepared) {
+            if (prepared.putIfAbsent(ChunkMap.toLong(chunkX, chunkZ), task) != null) {
+                return false;
+            }
+        }
+        service.execute(task);
+        return true;
+    }
+
+    public boolean isPrepared(int chunkX, int chunkZ) {
+        synchronized (prepared) {
+            return prepared.containsKey(ChunkMap.toLong(chunkX, chunkZ));
+        }
+    }
+
+    public int getPreparedCount() {
+        synchronized (prepared) {
+            return prepared.size();
+        }
+    }
+
+    /**
+     * Drop all prepared chunks (when the world is unloaded). Chunks that are
+     * not started yet are cancelled
+     */
+    public void clear() {
+        synchronized (prepared) {
+            for (Future<PreparedChunk> future : prepared.values()) {
+                future.cancel(false);
+            }
+            prepared.clear();
+        }
+    }
+
+    /**
+     * Get this chunk with all stages that don't need the World done. If the chunk
+     * was prepared earlier that one is used (waiting for it if needed)
+     */
+    public PreparedChunk take(int chunkX, int chunkZ) {
+        Future<PreparedChunk> future;
+        synchronized (prepared) {
+            future = prepared.remove(ChunkMap.toLong(chunkX, chunkZ));
+        }
+        if (future != null) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                LostCities.logger.error("Error preparing chunk " + chunkX + "," + chunkZ, e.getCause());
+                // Fall through and try again on this thread so that the real problem is reported
+            }
+        }
+        return prepare(chunkX, chunkZ);
+    }
+}
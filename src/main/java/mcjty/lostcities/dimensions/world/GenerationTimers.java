@@ -0,0 +1,254 @@
+package mcjty.lostcities.dimensions.world;
+
+import mcjty.lostcities.LostCities;
+import mcjty.lostcities.config.LostCityConfiguration;
+import mcjty.lostcities.proxy.CommonProxy;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timers for the parts of chunk generation. Every timer keeps a histogram of
+ * durations (logarithmic buckets) so that percentiles can be reported. Recording
+ * is cheap (System.nanoTime() and a LongAdder) and can be turned off with
+ * 'generationTimers' in the config. Usage:
+ *
+ *     long start = GenerationTimers.start();
+ *     ...
+ *     GenerationTimers.record(GenerationTimers.Timer.DEBRIS, start);
+ */
+public class GenerationTimers {
+
+    public enum Timer {
+        // The stages of a chunk (see ChunkPipeline). These never overlap
+        CITY_LAYOUT("cityLayout", null),        // Planning the BuildingInfo for the chunk
+        CORE_TERRAIN("coreTerrain", null),      // Noise terrain (doCoreChunk) for non city chunks
+        CITY_BLOCKS("cityBlocks", null),        // Streets, buildings, highways, railways and damage
+        BIOMES("biomes", null),
+        CAVES("caves", null),
+        RAVINES("ravines", null),
+        STRUCTURES("structures", null),         // Mineshafts, villages, strongholds, scattered features and monuments
+        CHUNK("chunk", null),                   // Making the Chunk and the skylight map
+        POPULATE("populate", null),
+
+        // Parts of a stage. Their time is included in the time of that stage
+        BUILDING("building", CITY_BLOCKS),
+        HIGHWAYS("highways", CITY_BLOCKS),
+        RAILWAYS("railways", CITY_BLOCKS),
+        DAMAGE("damage", CITY_BLOCKS),
+        EXPLOSION_FIX("explosionFix", CITY_BLOCKS),
+        DEBRIS("debris", CITY_BLOCKS),
+        MINESHAFTS("mineshafts", STRUCTURES),
+        VILLAGES("villages", STRUCTURES),
+        STRONGHOLDS("strongholds", STRUCTURES),
+        SCATTERED("scattered", STRUCTURES),
+        MONUMENTS("monuments", STRUCTURES),
+        POPULATE_STRUCTURES("populateStructures", POPULATE);
+
+        private final String name;
+        private final Timer stage;
+
+        Timer(String name, Timer stage) {
+            this.name = name;
+            this.stage = stage;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // The stage this timer is a part of (null if this timer is a stage)
+        public Timer getStage() {
+            return stage;
+        }
+    }
+
+    // Every power of two is split in SUB_BUCKETS buckets
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private static final Histogram[] histograms = new Histogram[Timer.values().length];
+
+    static {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    private static long lastCsv = 0;
+
+    public static long start() {
+        return LostCityConfiguration.GENERATION_TIMERS ? System.nanoTime() : 0;
+    }
+
+    public static void record(Timer timer, long start) {
+        if (start != 0) {
+            histograms[timer.ordinal()].add(System.nanoTime() - start);
+        }
+    }
+
+    public static void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * One line per timer that was used: count, mean and percentiles in microseconds.
+     * Every stage is followed by its parts (indented)
+     */
+    public static List<String> getReport() {
+        List<String> lines = new ArrayList<>();
+        for (Timer stage : Timer.values()) {
+            if (stage.getStage() == null) {
+                addReportLine(lines, stage, "");
+                for (Timer part : Timer.values()) {
+                    if (part.getStage() == stage) {
+                        addReportLine(lines, part, "    ");
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static void addReportLine(List<String> lines, Timer timer, String indent) {
+        Histogram histogram = histograms[timer.ordinal()];
+        long count = histogram.getCount();
+        if (count > 0) {
+            lines.add(String.format("%s%s: n=%d mean=%dus p50=%dus p90=%dus p99=%dus max=%dus", indent, timer.getName(), count,
+                    histogram.getTotal() / count / 1000, histogram.getPercentile(.5) / 1000,
+                    histogram.getPercentile(.9) / 1000, histogram.getPercentile(.99) / 1000, histogram.getMax() / 1000));
+        }
+    }
+
+    /**
+     * Called every server tick. Appends all timers to the CSV file every
+     * 'statsCsvInterval' seconds (if that is not 0)
+     */
+    public static void onServerTick() {
+        if (LostCityConfiguration.STATS_CSV_INTERVAL <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (lastCsv == 0) {
+            lastCsv = now;
+            return;
+        }
+        if (now - lastCsv < LostCityConfiguration.STATS_CSV_INTERVAL * 1000L) {
+            return;
+        }
+        lastCsv = now;
+        writeCsv(new File(CommonProxy.modConfigDir.getPath() + File.separator + "lostcities", "stats.csv"), now);
+    }
+
+    private static void writeCsv(File csvFile, long now) {
+        boolean header = !csvFile.exists();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(csvFile, true))) {
+            if (header) {
+                writer.println("time,timer,count,mean_us,p50_us,p90_us,p99_us,max_us");
+            }
+            for (Timer timer : Timer.values()) {
+                Histogram histogram = histograms[timer.ordinal()];
+                long count = histogram.getCount();
+                writer.println(now + "," + timer.getName() + "," + count + ","
+                        + (count == 0 ? 0 : histogram.getTotal() / count / 1000) + ","
+                        + histogram.getPercentile(.5) / 1000 + "," + histogram.getPercentile(.9) / 1000 + ","
+                        + histogram.getPercentile(.99) / 1000 + "," + histogram.getMax() / 1000);
+            }
+        } catch (IOException e) {
+            LostCities.logger.error("Error writing " + csvFile, e);
+        }
+    }
+
+    private static int getBucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(nanos, 0);
+        }
+        int high = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (high - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return high * SUB_BUCKETS + sub;
+    }
+
+    // The highest duration that ends up in this bucket
+    private static long getBucketMax(int bucket) {
+        int high = bucket / SUB_BUCKETS;
+        if (high < SUB_BITS) {
+            return bucket;
+        }
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (high - SUB_BITS)) - 1;
+    }
+
+    private static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder total = new LongAdder();
+        private volatile long max = 0;
+
+        private Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void add(long nanos) {
+            buckets[getBucket(nanos)].increment();
+            total.add(nanos);
+            if (nanos > max) {
+                max = nanos;        // Not exact with multiple threads but good enough
+            }
+        }
+
+        private void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            total.reset();
+            max = 0;
+        }
+
+        private long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        private long getTotal() {
+            return total.sum();
+        }
+
+        private long getMax() {
+            return max;
+        }
+
+        // Upper bound of the bucket that contains this percentile
+        private long getPercentile(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                count += counts[i];
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(getBucketMax(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package mcjty.lostcities.dimensions.world;
 
+import mcjty.lostcities.varia.ChunkRandom;
 import net.minecraft.block.Block;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.math.BlockPos;
@@ -12,8 +13,6 @@ import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.terraingen.ChunkGeneratorEvent;
 import net.minecraftforge.fml.common.eventhandler.Event;
 
-import java.util.Random;
-
 public class IslandTerrainGenerator {
     private LostCityChunkGenerator provider;
 
@@ -117,7 +116,7 @@ public class IslandTerrainGenerator {
         this.noiseData3 = this.noiseGen2.generateNoiseOctaves(this.noiseData3, chunkX2, chunkY2, chunkZ2, sizeX, sizeY, sizeZ, d0, d1, d0);
         int k1 = 0;
 
-        Random random = new Random(chunkX2 * 13 + chunkY2 * 157 + chunkZ2 * 13883);
+        ChunkRandom random = ChunkRandom.create(chunkX2 * 13 + chunkY2 * 157 + chunkZ2 * 13883, provider.profile.FAST_RANDOM);
         random.nextFloat();
 
         for (int x = 0; x < sizeX; ++x) {
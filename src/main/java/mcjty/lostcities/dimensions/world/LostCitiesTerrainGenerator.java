@@ -4,7 +4,7 @@ import mcjty.lostcities.api.LostCityEvent;
 import mcjty.lostcities.api.RailChunkType;
 import mcjty.lostcities.dimensions.world.lost.*;
 import mcjty.lostcities.dimensions.world.lost.cityassets.*;
-import mcjty.lostcities.varia.ChunkCoord;
+import mcjty.lostcities.varia.ChunkRandom;
 import mcjty.lostcities.varia.GeometryTools;
 import mcjty.lostcities.varia.PrimerTools;
 import mcjty.lostcities.varia.Tools;
@@ -25,10 +25,16 @@ import java.util.function.BiFunction;
 
 public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
 
-    private static int g_seed = 123456789;
+    // The fast random. Every thread has its own seed so that chunks can be generated in parallel
+    private static class FastRandom {
+        private int seed = 123456789;
+    }
+    private static final ThreadLocal<FastRandom> g_seed = ThreadLocal.withInitial(FastRandom::new);
+
     private final int groundLevel;
     private final int waterLevel;
-    private static boolean charsSetup = false;
+    // Volatile so that worker threads that see it set also see the chars
+    private static volatile boolean charsSetup = false;
     public static char airChar;
     public static char hardAirChar;
     public static char glowstoneChar;
@@ -48,14 +54,17 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
     public static char spawnerChar;
     public static char chestChar;
 
-    private static Set<Character> rotatableChars = null;
-    private static Set<Character> railChars = null;
-    private static Set<Character> glassChars = null;
-    private static Set<Character> charactersNeedingTodo = null;
-
-    private Character street;
-    private Character streetBase;
-    private Character street2;
+    // Indexed by block state id
+    private static BitSet rotatableChars = null;
+    private static BitSet railChars = null;
+    private static BitSet glassChars = null;
+    private static BitSet charactersNeedingTodo = null;
+    // Rotated block state per transform (indexed by Transform ordinal) for all rotatable and rail blocks
+    private static volatile char[][] rotatedChars = null;
+
+    private char street;
+    private char streetBase;
+    private char street2;
     private int streetBorder;
 
     private NoiseGeneratorPerlin rubbleNoise;
@@ -80,6 +89,16 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
 //        islandTerrainGenerator.setup(provider.worldObj, provider);
     }
 
+    // A generator with working buffers of its own that shares the noise generators of 'other'
+    public LostCitiesTerrainGenerator(LostCitiesTerrainGenerator other) {
+        super(other);
+        this.groundLevel = other.groundLevel;
+        this.waterLevel = other.waterLevel;
+        this.rubbleNoise = other.rubbleNoise;
+        this.leavesNoise = other.leavesNoise;
+        this.ruinNoise = other.ruinNoise;
+    }
+
     public static char getRandomLeaf() {
         if (randomLeafs == null) {
             randomLeafs = new char[128];
@@ -97,18 +116,34 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         return randomLeafs[fastrand128()];
     }
 
-    public static Set<Character> getRailChars() {
+    public static boolean isRailChar(char c) {
+        return getRailChars().get(c);
+    }
+
+    public static boolean isGlassChar(char c) {
+        return getGlassChars().get(c);
+    }
+
+    public static boolean isRotatableChar(char c) {
+        return getRotatableChars().get(c);
+    }
+
+    public static boolean needsTodo(char c) {
+        return getCharactersNeedingTodo().get(c);
+    }
+
+    private static BitSet getRailChars() {
         if (railChars == null) {
-            railChars = new HashSet<>();
+            railChars = new BitSet();
             addStates(Blocks.RAIL, railChars);
             addStates(Blocks.GOLDEN_RAIL, railChars);
         }
         return railChars;
     }
 
-    public static Set<Character> getGlassChars() {
+    private static BitSet getGlassChars() {
         if (glassChars == null) {
-            glassChars = new HashSet<>();
+            glassChars = new BitSet();
             addStates(Blocks.GLASS, glassChars);
             addStates(Blocks.STAINED_GLASS, glassChars);
             addStates(Blocks.GLASS_PANE, glassChars);
@@ -117,26 +152,26 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         return glassChars;
     }
 
-    public static Set<Character> getCharactersNeedingTodo() {
+    private static BitSet getCharactersNeedingTodo() {
         if (charactersNeedingTodo == null) {
-            charactersNeedingTodo = new HashSet<>();
-            charactersNeedingTodo.add(torchChar);
-            charactersNeedingTodo.add(spawnerChar);
-            charactersNeedingTodo.add(chestChar);
-            charactersNeedingTodo.add(glowstoneChar);
-            charactersNeedingTodo.add((char) Block.BLOCK_STATE_IDS.get(Blocks.SAPLING.getDefaultState().withProperty(BlockSapling.TYPE, BlockPlanks.EnumType.ACACIA)));
-            charactersNeedingTodo.add((char) Block.BLOCK_STATE_IDS.get(Blocks.SAPLING.getDefaultState().withProperty(BlockSapling.TYPE, BlockPlanks.EnumType.BIRCH)));
-            charactersNeedingTodo.add((char) Block.BLOCK_STATE_IDS.get(Blocks.SAPLING.getDefaultState().withProperty(BlockSapling.TYPE, BlockPlanks.EnumType.OAK)));
-            charactersNeedingTodo.add((char) Block.BLOCK_STATE_IDS.get(Blocks.SAPLING.getDefaultState().withProperty(BlockSapling.TYPE, BlockPlanks.EnumType.SPRUCE)));
-            charactersNeedingTodo.add((char) Block.BLOCK_STATE_IDS.get(Blocks.SAPLING.getDefaultState().withProperty(BlockSapling.TYPE, BlockPlanks.EnumType.DARK_OAK)));
-            charactersNeedingTodo.add((char) Block.BLOCK_STATE_IDS.get(Blocks.SAPLING.getDefaultState().withProperty(BlockSapling.TYPE, BlockPlanks.EnumType.JUNGLE)));
+            charactersNeedingTodo = new BitSet();
+            charactersNeedingTodo.set(torchChar);
+            charactersNeedingTodo.set(spawnerChar);
+            charactersNeedingTodo.set(chestChar);
+            charactersNeedingTodo.set(glowstoneChar);
+            charactersNeedingTodo.set((char) Block.BLOCK_STATE_IDS.get(Blocks.SAPLING.getDefaultState().withProperty(BlockSapling.TYPE, BlockPlanks.EnumType.ACACIA)));
+            charactersNeedingTodo.set((char) Block.BLOCK_STATE_IDS.get(Blocks.SAPLING.getDefaultState().withProperty(BlockSapling.TYPE, BlockPlanks.EnumType.BIRCH)));
+            charactersNeedingTodo.set((char) Block.BLOCK_STATE_IDS.get(Blocks.SAPLING.getDefaultState().withProperty(BlockSapling.TYPE, BlockPlanks.EnumType.OAK)));
+            charactersNeedingTodo.set((char) Block.BLOCK_STATE_IDS.get(Blocks.SAPLING.getDefaultState().withProperty(BlockSapling.TYPE, BlockPlanks.EnumType.SPRUCE)));
+            charactersNeedingTodo.set((char) Block.BLOCK_STATE_IDS.get(Blocks.SAPLING.getDefaultState().withProperty(BlockSapling.TYPE, BlockPlanks.EnumType.DARK_OAK)));
+            charactersNeedingTodo.set((char) Block.BLOCK_STATE_IDS.get(Blocks.SAPLING.getDefaultState().withProperty(BlockSapling.TYPE, BlockPlanks.EnumType.JUNGLE)));
         }
         return charactersNeedingTodo;
     }
 
-    public static Set<Character> getRotatableChars() {
+    private static BitSet getRotatableChars() {
         if (rotatableChars == null) {
-            rotatableChars = new HashSet<>();
+            rotatableChars = new BitSet();
             addStates(Blocks.ACACIA_STAIRS, rotatableChars);
             addStates(Blocks.BIRCH_STAIRS, rotatableChars);
             addStates(Blocks.BRICK_STAIRS, rotatableChars);
@@ -156,11 +191,68 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         return rotatableChars;
     }
 
-    private static void addStates(Block block, Set<Character> set) {
+    /**
+     * Return the block state id of this block rotated with the given transform
+     */
+    public static char rotate(char b, Transform transform) {
+        char[] rotated = getRotatedChars()[transform.ordinal()];
+        return b < rotated.length ? rotated[b] : b;
+    }
+
+    private static char[][] getRotatedChars() {
+        if (rotatedChars == null) {
+            makeRotatedChars();
+        }
+        return rotatedChars;
+    }
+
+    private static synchronized void makeRotatedChars() {
+        if (rotatedChars != null) {
+            return;
+        }
+        BitSet rotatable = getRotatableChars();
+        BitSet rails = getRailChars();
+        int size = Math.max(rotatable.length(), rails.length());
+        char[][] tables = new char[Transform.values().length][];
+        for (Transform transform : Transform.values()) {
+            char[] table = new char[size];
+            for (int i = 0 ; i < size ; i++) {
+                table[i] = (char) i;
+            }
+            if (transform != Transform.ROTATE_NONE) {
+                for (int i = rotatable.nextSetBit(0) ; i >= 0 ; i = rotatable.nextSetBit(i + 1)) {
+                    IBlockState bs = Block.BLOCK_STATE_IDS.getByValue(i);
+                    bs = bs.withRotation(transform.getMcRotation());
+                    table[i] = (char) Block.BLOCK_STATE_IDS.get(bs);
+                }
+                for (int i = rails.nextSetBit(0) ; i >= 0 ; i = rails.nextSetBit(i + 1)) {
+                    if (rotatable.get(i)) {
+                        continue;
+                    }
+                    IBlockState bs = Block.BLOCK_STATE_IDS.getByValue(i);
+                    PropertyEnum<BlockRailBase.EnumRailDirection> shapeProperty;
+                    if (bs.getBlock() == Blocks.RAIL) {
+                        shapeProperty = BlockRail.SHAPE;
+                    } else if (bs.getBlock() == Blocks.GOLDEN_RAIL) {
+                        shapeProperty = BlockRailPowered.SHAPE;
+                    } else {
+                        throw new RuntimeException("Error with rail!");
+                    }
+                    BlockRailBase.EnumRailDirection shape = bs.getValue(shapeProperty);
+                    bs = bs.withProperty(shapeProperty, transform.transform(shape));
+                    table[i] = (char) Block.BLOCK_STATE_IDS.get(bs);
+                }
+            }
+            tables[transform.ordinal()] = table;
+        }
+        rotatedChars = tables;
+    }
+
+    private static void addStates(Block block, BitSet set) {
         for (int m = 0; m < 16; m++) {
             try {
                 IBlockState state = block.getStateFromMeta(m);
-                set.add((char) Block.BLOCK_STATE_IDS.get(state));
+                set.set(Block.BLOCK_STATE_IDS.get(state));
             } catch (Exception e) {
                 // Ignore
             }
@@ -199,58 +291,76 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
     }
 
     private static int fastrand() {
-        g_seed = (214013*g_seed+2531011);
-        return (g_seed>>16)&0x7FFF;
+        FastRandom r = g_seed.get();
+        r.seed = (214013*r.seed+2531011);
+        return (r.seed>>16)&0x7FFF;
     }
 
     public static int fastrand128() {
-        g_seed = (214013*g_seed+2531011);
-        return (g_seed>>16)&0x7F;
+        FastRandom r = g_seed.get();
+        r.seed = (214013*r.seed+2531011);
+        return (r.seed>>16)&0x7F;
     }
 
-    // Note that for normal chunks this is called with a pre-filled in landscape primer
-    public void generate(int chunkX, int chunkZ, ChunkPrimer primer) {
+    // Note that for normal chunks this is called with a pre-filled in landscape primer.
+    // All randomness comes from the given random (of this chunk) and the fast random which
+    // is reset here so the result doesn't depend on the order in which chunks are made.
+    // A terrain generator has working buffers so it must only be used by one thread (see
+    // LostCityChunkGenerator.getTerrainGenerator())
+    public void generate(int chunkX, int chunkZ, ChunkPrimer primer, Random rand) {
+        g_seed.get().seed = (int) (provider.seed + chunkX * 341873128712L + chunkZ * 132897987541L);
         BuildingInfo info = BuildingInfo.getBuildingInfo(chunkX, chunkZ, provider);
 
         // @todo this setup is not very clean
         CityStyle cityStyle = info.getCityStyle();
-        street = info.getCompiledPalette().get(cityStyle.getStreetBlock());
-        streetBase = info.getCompiledPalette().get(cityStyle.getStreetBaseBlock());
-        street2 = info.getCompiledPalette().get(cityStyle.getStreetVariantBlock());
+        if (info.isCity) {
+            // Only city chunks use streets. Outside palettes don't need to have these
+            street = info.getCompiledPalette().get(cityStyle.getStreetBlock());
+            streetBase = info.getCompiledPalette().get(cityStyle.getStreetBaseBlock());
+            street2 = info.getCompiledPalette().get(cityStyle.getStreetVariantBlock());
+        }
         streetBorder = (16 - cityStyle.getStreetWidth()) / 2;
 
         if (info.isCity) {
-            doCityChunk(chunkX, chunkZ, primer, info);
+            doCityChunk(chunkX, chunkZ, primer, info, rand);
         } else {
             // We already have a prefilled core chunk (as generated from doCoreChunk)
-            doNormalChunk(chunkX, chunkZ, primer, info);
+            doNormalChunk(chunkX, chunkZ, primer, info, rand);
         }
 
         Railway.RailChunkInfo railInfo = info.getRailInfo();
         if (railInfo.getType() != RailChunkType.NONE) {
+            long start = GenerationTimers.start();
             generateRailways(primer, info, railInfo);
+            GenerationTimers.record(GenerationTimers.Timer.RAILWAYS, start);
         }
         generateRailwayDungeons(primer, info);
 
         fixTorches(primer, info);
 
-        // We make a new random here because the primer for a normal chunk may have
+        // We reseed the random here because the primer for a normal chunk may have
         // been cached and we want to be able to do the same when returning from a cached
         // primer vs generating it here
-        provider.rand.setSeed(chunkX * 257017164707L + chunkZ * 101754694003L);
+        rand.setSeed(chunkX * 257017164707L + chunkZ * 101754694003L);
 
         LostCityEvent.PreExplosionEvent event = new LostCityEvent.PreExplosionEvent(provider.worldObj, provider, chunkX, chunkZ, primer);
         if (!MinecraftForge.EVENT_BUS.post(event)) {
             if (info.getDamageArea().hasExplosions()) {
-                breakBlocksForDamage(chunkX, chunkZ, primer, info);
-                fixAfterExplosionNew(primer, info, provider.rand);
+                long start = GenerationTimers.start();
+                breakBlocksForDamage(chunkX, chunkZ, primer, info, rand);
+                GenerationTimers.record(GenerationTimers.Timer.DAMAGE, start);
+                start = GenerationTimers.start();
+                fixAfterExplosionNew(primer, info, rand);
+                GenerationTimers.record(GenerationTimers.Timer.EXPLOSION_FIX, start);
             }
-            generateDebris(primer, provider.rand, info);
+            long start = GenerationTimers.start();
+            generateDebris(primer, rand, info);
+            GenerationTimers.record(GenerationTimers.Timer.DEBRIS, start);
         }
     }
 
     private void fixTorches(ChunkPrimer primer, BuildingInfo info) {
-        List<Integer> torches = info.getTorchTodo();
+        List<Integer> torches = info.takeTorchTodo();
         if (torches.isEmpty()) {
             return;
         }
@@ -278,7 +388,6 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
                 }
             }
         }
-        info.clearTorchTodo();
     }
 
 
@@ -291,6 +400,66 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
 //        }
 //    }
 
+    // Solid flags for the 4x4 columns of one noise cell. Every column has four
+    // longs (one bit per height)
+    private final long[] solidBuffer = new long[4 * 4 * 4];
+    // Solid flags for the 4x4 columns of 8 heights of one noise cell (see interpolateCell())
+    private final int[] cellBuffer = new int[4 * 4];
+    // Highest solid block for the 4x4 columns of one noise cell (used by doCoreHeightmap())
+    private final int[] topBuffer = new int[4 * 4];
+
+    /**
+     * Interpolate the 8 heights starting at height32 * 8 of the noise cell that starts
+     * at x4 * 4, z4 * 4. Bit h of cell[x * 4 + z] is set if the block at that height is
+     * solid. generateHeightmap() must be called first. The order of the additions is
+     * important to get exactly the same terrain as before
+     */
+    private void interpolateCell(int x4, int z4, int height32, int[] cell) {
+        int k1 = (x4 * 5 + z4) * 33 + height32;
+        int l1 = (x4 * 5 + z4 + 1) * 33 + height32;
+        int i2 = ((x4 + 1) * 5 + z4) * 33 + height32;
+        int j2 = ((x4 + 1) * 5 + z4 + 1) * 33 + height32;
+
+        double d1 = heightMap[k1];
+        double d2 = heightMap[l1];
+        double d3 = heightMap[i2];
+        double d4 = heightMap[j2];
+        double d5 = (heightMap[k1 + 1] - d1) * 0.125D;
+        double d6 = (heightMap[l1 + 1] - d2) * 0.125D;
+        double d7 = (heightMap[i2 + 1] - d3) * 0.125D;
+        double d8 = (heightMap[j2 + 1] - d4) * 0.125D;
+
+        Arrays.fill(cell, 0);
+        for (int h = 0; h < 8; ++h) {
+            double d10 = d1;
+            double d11 = d2;
+            double d12 = (d3 - d1) * 0.25D;
+            double d13 = (d4 - d2) * 0.25D;
+            int bit = 1 << h;
+
+            for (int x = 0; x < 4; ++x) {
+                double d16 = (d11 - d10) * 0.25D;
+                double d15 = d10 - d16;
+                int index = x * 4;
+
+                for (int z = 0; z < 4; ++z) {
+                    if ((d15 += d16) > 0.0D) {
+                        cell[index] |= bit;
+                    }
+                    index++;
+                }
+
+                d10 += d12;
+                d11 += d13;
+            }
+
+            d1 += d5;
+            d2 += d6;
+            d3 += d7;
+            d4 += d8;
+        }
+    }
+
     public void doCoreChunk(int chunkX, int chunkZ, ChunkPrimer primer) {
 //        if (islandTerrainGenerator != null) {
 //            islandTerrainGenerator.generate(chunkX, chunkZ, primer);
@@ -298,71 +467,112 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
 //        }
 
         generateHeightmap(chunkX, chunkZ);
+        long[] solid = solidBuffer;
+        int[] cell = cellBuffer;
         for (int x4 = 0; x4 < 4; ++x4) {
-            int l = x4 * 5;
-            int i1 = (x4 + 1) * 5;
-
             for (int z4 = 0; z4 < 4; ++z4) {
-                int k1 = (l + z4) * 33;
-                int l1 = (l + z4 + 1) * 33;
-                int i2 = (i1 + z4) * 33;
-                int j2 = (i1 + z4 + 1) * 33;
-
+                // First find the solid blocks of all columns in this cell
+                Arrays.fill(solid, 0L);
                 for (int height32 = 0; height32 < 32; ++height32) {
-                    double d1 = heightMap[k1 + height32];
-                    double d2 = heightMap[l1 + height32];
-                    double d3 = heightMap[i2 + height32];
-                    double d4 = heightMap[j2 + height32];
-                    double d5 = (heightMap[k1 + height32 + 1] - d1) * 0.125D;
-                    double d6 = (heightMap[l1 + height32 + 1] - d2) * 0.125D;
-                    double d7 = (heightMap[i2 + height32 + 1] - d3) * 0.125D;
-                    double d8 = (heightMap[j2 + height32 + 1] - d4) * 0.125D;
-
-                    for (int h = 0; h < 8; ++h) {
-                        double d10 = d1;
-                        double d11 = d2;
-                        double d12 = (d3 - d1) * 0.25D;
-                        double d13 = (d4 - d2) * 0.25D;
-                        int height = (height32 * 8) + h;
-
-                        for (int x = 0; x < 4; ++x) {
-                            int index = ((x + (x4 * 4)) << 12) | ((0 + (z4 * 4)) << 8) | height;
-                            short maxheight = 256;
-                            index -= maxheight;
-                            double d16 = (d11 - d10) * 0.25D;
-                            double d15 = d10 - d16;
-
-                            for (int z = 0; z < 4; ++z) {
-                                index += maxheight;
-                                if ((d15 += d16) > 0.0D) {
-                                    primer.data[index] = baseChar;
-                                } else if (height < waterLevel) {
-                                    primer.data[index] = liquidChar;
-                                }
-                            }
+                    interpolateCell(x4, z4, height32, cell);
+                    int word = height32 >> 3;
+                    int shift = (height32 & 7) * 8;
+                    for (int i = 0; i < 16; i++) {
+                        solid[i * 4 + word] |= ((long) cell[i]) << shift;
+                    }
+                }
+
+                // Then fill the columns with runs of stone and water
+                for (int x = 0; x < 4; ++x) {
+                    for (int z = 0; z < 4; ++z) {
+                        int index = ((x + (x4 * 4)) << 12) | ((z + (z4 * 4)) << 8);
+                        int offset = (x * 4 + z) * 4;
+                        for (int word = 0; word < 4; word++) {
+                            long stone = solid[offset + word];
+                            int base = index + word * 64;
+                            fillRuns(primer, base, stone, baseChar);
+                            fillRuns(primer, base, ~stone & waterMask(word), liquidChar);
+                        }
+                    }
+                }
+            }
+        }
+    }
 
-                            d10 += d12;
-                            d11 += d13;
+    // The heights below the water level in the given 64 block part of a column
+    private long waterMask(int word) {
+        int below = waterLevel - word * 64;
+        if (below <= 0) {
+            return 0L;
+        } else if (below >= 64) {
+            return -1L;
+        }
+        return (1L << below) - 1;
+    }
+
+    // Set all blocks for which the bit in 'mask' is set to 'c' (in runs)
+    private static void fillRuns(ChunkPrimer primer, int base, long mask, char c) {
+        while (mask != 0) {
+            int start = Long.numberOfTrailingZeros(mask);
+            long rest = ~(mask >>> start);
+            int end = rest == 0 ? 64 : start + Long.numberOfTrailingZeros(rest);
+            PrimerTools.setBlockStateRange(primer, base + start, base + end, c);
+            if (end >= 64) {
+                break;
+            }
+            mask &= -1L << end;
+        }
+    }
+
+    /**
+     * Calculate the heightmap that doCoreChunk() would give without making the blocks.
+     * Every 4x4x8 cell is interpolated exactly like in doCoreChunk() (so the result is
+     * the same) but cells are done from the top down and we stop as soon as all columns
+     * have found their highest solid block (or are below the water level)
+     */
+    public ChunkHeightmap doCoreHeightmap(int chunkX, int chunkZ) {
+        byte[] heights = new byte[16 * 16];
+        // Water is not air so columns without solid blocks above the water go up to the water
+        int minHeight = Math.max(0, waterLevel - 1);
+
+        generateHeightmap(chunkX, chunkZ);
+        int[] cell = cellBuffer;
+        int[] top = topBuffer;
+        for (int x4 = 0; x4 < 4; ++x4) {
+            for (int z4 = 0; z4 < 4; ++z4) {
+                Arrays.fill(top, -1);
+                int todo = 16;
+
+                for (int height32 = 31; height32 >= 0 && todo > 0 && height32 * 8 + 7 > minHeight; --height32) {
+                    interpolateCell(x4, z4, height32, cell);
+                    for (int i = 0; i < 16; i++) {
+                        if (top[i] == -1 && cell[i] != 0) {
+                            top[i] = height32 * 8 + 31 - Integer.numberOfLeadingZeros(cell[i]);
+                            todo--;
                         }
+                    }
+                }
 
-                        d1 += d5;
-                        d2 += d6;
-                        d3 += d7;
-                        d4 += d8;
+                for (int z = 0; z < 4; ++z) {
+                    for (int x = 0; x < 4; ++x) {
+                        heights[(z4 * 4 + z) * 16 + x4 * 4 + x] = (byte) Math.max(top[x * 4 + z], minHeight);
                     }
                 }
             }
         }
+        return new ChunkHeightmap(heights);
     }
 
-    public void doNormalChunk(int chunkX, int chunkZ, ChunkPrimer primer, BuildingInfo info) {
+    public void doNormalChunk(int chunkX, int chunkZ, ChunkPrimer primer, BuildingInfo info, Random rand) {
 //        debugClearChunk(chunkX, chunkZ, primer);
-        flattenChunkToCityBorder(chunkX, chunkZ, primer);
+        flattenChunkToCityBorder(chunkX, chunkZ, primer, rand);
         generateBridges(primer, info);
+        long start = GenerationTimers.start();
         generateHighways(chunkX, chunkZ, primer, info);
+        GenerationTimers.record(GenerationTimers.Timer.HIGHWAYS, start);
     }
 
-    private void breakBlocksForDamage(int chunkX, int chunkZ, ChunkPrimer primer, BuildingInfo info) {
+    private void breakBlocksForDamage(int chunkX, int chunkZ, ChunkPrimer primer, BuildingInfo info, Random rand) {
         int cx = chunkX * 16;
         int cz = chunkZ * 16;
 
@@ -398,7 +608,7 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
                                 if (d != airChar || (index & 0xff) < waterLevel) {
                                     float damage = damageArea.getDamage(cx + x, cury, cz + z) * damageFactor;
                                     if (damage >= 0.001) {
-                                        Character newd = damageArea.damageBlock(d, provider, cury, damage, info.getCompiledPalette());
+                                        char newd = damageArea.damageBlock(d, provider, rand, cury, damage, info.getCompiledPalette());
                                         if (newd != d) {
                                             primer.data[index] = newd;
                                             cntDamaged++;
@@ -565,7 +775,7 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
                 int index = (x << 12) | (z << 8) + groundLevel + 1;
                 int l = 0;
                 while (l < bt.getSliceCount()) {
-                    Character b = orientation == Orientation.X ? bt.get(info, x, l, z) : bt.get(info, z, l, x); // @todo general rotation system?
+                    char b = orientation == Orientation.X ? bt.get(info, x, l, z) : bt.get(info, z, l, x); // @todo general rotation system?
                     if (b == torchChar) {
                         if (provider.profile.GENERATE_LIGHTING) {
                             info.addTorchTodo(index);
@@ -657,7 +867,7 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         }
     }
 
-    private void flattenChunkToCityBorder(int chunkX, int chunkZ, ChunkPrimer primer) {
+    private void flattenChunkToCityBorder(int chunkX, int chunkZ, ChunkPrimer primer, Random rand) {
         int cx = chunkX * 16;
         int cz = chunkZ * 16;
 
@@ -702,7 +912,7 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
                     }
 
                     int offset = (int) (Math.sqrt(mindist) * 2);
-                    flattenChunkBorder(primer, x, offset, z, provider.rand, height);
+                    flattenChunkBorder(primer, x, offset, z, rand, height);
                 }
             }
         }
@@ -723,16 +933,15 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
                     int height = minheight;//info.getCityGroundLevel();
 
                     int offset = (int) (Math.sqrt(mindist) * 2);
-                    flattenChunkBorderDownwards(primer, x, offset, z, provider.rand, height);
+                    flattenChunkBorderDownwards(primer, x, offset, z, rand, height);
                 }
             }
         }
     }
 
-    public static boolean isWaterBiome(LostCityChunkGenerator provider, ChunkCoord coord) {
-        BiomeInfo biomeInfo = BiomeInfo.getBiomeInfo(provider, coord);
-        Biome[] biomes = biomeInfo.getBiomes();
-        return isWaterBiome(biomes[55]) || isWaterBiome(biomes[54]) || isWaterBiome(biomes[56]);
+    public static boolean isWaterBiome(LostCityChunkGenerator provider, int chunkX, int chunkZ) {
+        BiomeInfo biomeInfo = BiomeInfo.getBiomeInfo(provider, chunkX, chunkZ);
+        return isWaterBiome(biomeInfo.getBiome(55)) || isWaterBiome(biomeInfo.getBiome(54)) || isWaterBiome(biomeInfo.getBiome(56));
     }
 
     private static boolean isWaterBiome(Biome biome) {
@@ -760,10 +969,10 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         clearRange(primer, index, level + offset + r, 230);
     }
 
-    private void doCityChunk(int chunkX, int chunkZ, ChunkPrimer primer, BuildingInfo info) {
+    private void doCityChunk(int chunkX, int chunkZ, ChunkPrimer primer, BuildingInfo info, Random random) {
         boolean building = info.hasBuilding;
 
-        Random rand = new Random(provider.seed * 377 + chunkZ * 341873128712L + chunkX * 132897987541L);
+        ChunkRandom rand = ChunkRandom.create(provider.seed * 377 + chunkZ * 341873128712L + chunkX * 132897987541L, provider.profile.FAST_RANDOM);
         rand.nextFloat();
         rand.nextFloat();
 
@@ -787,7 +996,9 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         LostCityEvent.PreGenCityChunkEvent event = new LostCityEvent.PreGenCityChunkEvent(provider.worldObj, provider, chunkX, chunkZ, primer);
         if (!MinecraftForge.EVENT_BUS.post(event)) {
             if (building) {
+                long start = GenerationTimers.start();
                 generateBuilding(primer, info);
+                GenerationTimers.record(GenerationTimers.Timer.BUILDING, start);
             } else {
                 generateStreet(primer, info, rand);
             }
@@ -796,7 +1007,7 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         MinecraftForge.EVENT_BUS.post(postevent);
 
         if (provider.profile.RUINS) {
-            generateRuins(primer, info);
+            generateRuins(primer, info, random);
         }
 
         int levelX = info.getHighwayXLevel();
@@ -808,7 +1019,9 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
             }
         }
         if (levelX >= 0 || levelZ >= 0) {
+            long start = GenerationTimers.start();
             generateHighways(chunkX, chunkZ, primer, info);
+            GenerationTimers.record(GenerationTimers.Timer.HIGHWAYS, start);
         }
 
         if (provider.profile.RUBBLELAYER) {
@@ -1007,11 +1220,11 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
                         for (int x = 0 ; x < 16 ; x++) {
                             for (int y = height + 1 ; y < height + part.getSliceCount() ; y++) {
                                 index = (x << 12) | (5 << 8) + y;
-                                if (getRailChars().contains(primer.data[index])) {
+                                if (isRailChar(primer.data[index])) {
                                     primer.data[index] = rail;
                                 }
                                 index = (x << 12) | (9 << 8) + y;
-                                if (getRailChars().contains(primer.data[index])) {
+                                if (isRailChar(primer.data[index])) {
                                     primer.data[index] = rail;
                                 }
                             }
@@ -1020,7 +1233,7 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
                         for (int x = 0 ; x < 16 ; x++) {
                             for (int y = height + 1 ; y < height + part.getSliceCount() ; y++) {
                                 index = (x << 12) | (7 << 8) + y;
-                                if (getRailChars().contains(primer.data[index])) {
+                                if (isRailChar(primer.data[index])) {
                                     primer.data[index] = rail;
                                 }
                             }
@@ -1075,18 +1288,30 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         }
     }
 
-    private static class Blob {
+    // Every blob gets a unique label. blobLabels has the label of the last blob that
+    // contains a block (by index). Labels are only reset (before a chunk) when they could
+    // run out so the array doesn't have to be cleared for every chunk
+    private final int[] blobLabels = new int[16 * 256 * 16];
+    private int lastBlobLabel = 0;
+    // Queue of positions (see Blob.pack()) for the flood fill
+    private int[] blobQueue = new int[4096];
+
+    private class Blob {
+        private final int label;
         private final int starty;
         private final int endy;
-        private final Set<Integer> connectedBlocks = new HashSet<>();
-        private final Map<Integer, Integer> blocksPerY = new HashMap<>();
+        // Indices of all blocks in the order they were found
+        private int[] blocks = new int[256];
+        private int size = 0;
+        private final int[] blocksPerY = new int[256];
         private int connections = 0;
         private int lowestY;
         private int highestY;
         private float avgdamage;
         private int cntMindamage;  // Number of blocks that receive almost no damage
 
-        public Blob(int starty, int endy) {
+        public Blob(int label, int starty, int endy) {
+            this.label = label;
             this.starty = starty;
             this.endy = endy;
             lowestY = 256;
@@ -1102,7 +1327,7 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         }
 
         public boolean contains(int index) {
-            return connectedBlocks.contains(index);
+            return index >= 0 && index < blobLabels.length && blobLabels[index] == label;
         }
 
         public int getLowestY() {
@@ -1113,19 +1338,39 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
             return highestY;
         }
 
-        public Set<Integer> cut(int y) {
-            Set<Integer> toRemove = new HashSet<>();
-            for (Integer block : connectedBlocks) {
+        public int getSize() {
+            return size;
+        }
+
+        // The blocks as a set that iterates in the same order as when the blocks were
+        // kept in a HashSet (moving blocks depends on that order)
+        public Set<Integer> getBlockSet() {
+            Set<Integer> set = new HashSet<>();
+            for (int i = 0; i < size; i++) {
+                set.add(blocks[i]);
+            }
+            return set;
+        }
+
+        public int[] cut(int y) {
+            int[] toRemove = new int[size];
+            int cnt = 0;
+            int newSize = 0;
+            for (int i = 0; i < size; i++) {
+                int block = blocks[i];
                 if ((block & 255) >= y) {
-                    toRemove.add(block);
+                    toRemove[cnt++] = block;
+                    blobLabels[block] = 0;
+                } else {
+                    blocks[newSize++] = block;
                 }
             }
-            connectedBlocks.removeAll(toRemove);
-            return toRemove;
+            size = newSize;
+            return Arrays.copyOf(toRemove, cnt);
         }
 
         public int needsSplitting() {
-            float averageBlocksPerLevel = (float) connectedBlocks.size() / (highestY - lowestY + 1);
+            float averageBlocksPerLevel = (float) size / (highestY - lowestY + 1);
             int connectionThresshold = (int) (averageBlocksPerLevel / 10);
             if (connectionThresshold <= 0) {
                 // Too small to split
@@ -1133,12 +1378,12 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
             }
             int cuttingY = -1;      // Where we will cut
             int cuttingCount = 1000000;
-            for (int y = lowestY; y <= highestY; y++) {
-                if (y >= 3 && blocksPerY.get(y) <= connectionThresshold) {
-                    if (blocksPerY.get(y) < cuttingCount) {
-                        cuttingCount = blocksPerY.get(y);
+            for (int y = lowestY; y <= highestY && y < 256; y++) {
+                if (y >= 3 && blocksPerY[y] <= connectionThresshold) {
+                    if (blocksPerY[y] < cuttingCount) {
+                        cuttingCount = blocksPerY[y];
                         cuttingY = y;
-                    } else if (blocksPerY.get(y) > cuttingCount * 4) {
+                    } else if (blocksPerY[y] > cuttingCount * 4) {
                         return cuttingY;
                     }
                 }
@@ -1147,7 +1392,7 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         }
 
         public boolean destroyOrMoveThis(LostCityChunkGenerator provider) {
-            return connections < 5 || (((float) connections / connectedBlocks.size()) < provider.profile.DESTROY_LONE_BLOCKS_FACTOR);
+            return connections < 5 || (((float) connections / size) < provider.profile.DESTROY_LONE_BLOCKS_FACTOR);
         }
 
         private boolean isOutside(BuildingInfo info, int x, int y, int z) {
@@ -1182,20 +1427,32 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
             return false;
         }
 
-        public void scan(BuildingInfo info, ChunkPrimer primer, char air, char liquid, BlockPos pos) {
+        // Positions in the queue can be one outside the chunk (and y can go above 255)
+        private int pack(int x, int y, int z) {
+            return ((y + 1) << 10) | ((x + 1) << 5) | (z + 1);
+        }
+
+        /**
+         * Flood fill from the given block. Positions are checked when they are taken
+         * from the queue (and not when they are added) so that the blocks are found
+         * in the same order and connections are counted the same way as before
+         */
+        public void scan(BuildingInfo info, ChunkPrimer primer, char air, char liquid, int startx, int starty, int startz) {
             DamageArea damageArea = info.getDamageArea();
             avgdamage = 0;
             cntMindamage = 0;
-            Queue<BlockPos> todo = new ArrayDeque<>();
-            todo.add(pos);
-
-            while (!todo.isEmpty()) {
-                pos = todo.poll();
-                int x = pos.getX();
-                int y = pos.getY();
-                int z = pos.getZ();
+            int[] todo = blobQueue;
+            int head = 0;
+            int tail = 0;
+            todo[tail++] = pack(startx, starty, startz);
+
+            while (head < tail) {
+                int p = todo[head++];
+                int x = ((p >> 5) & 31) - 1;
+                int y = (p >> 10) - 1;
+                int z = (p & 31) - 1;
                 int index = Tools.calcIndex(x, y, z);
-                if (connectedBlocks.contains(index)) {
+                if (contains(index)) {
                     continue;
                 }
                 if (isOutside(info, x, y, z)) {
@@ -1204,16 +1461,18 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
                 if (primer.data[index] == air || primer.data[index] == liquid) {
                     continue;
                 }
-                connectedBlocks.add(index);
+                if (size >= blocks.length) {
+                    blocks = Arrays.copyOf(blocks, blocks.length * 2);
+                }
+                blocks[size++] = index;
+                blobLabels[index] = label;
                 float damage = damageArea.getDamage(x, y, z);
                 if (damage < 0.01f) {
                     cntMindamage++;
                 }
                 avgdamage += damage;
-                if (!blocksPerY.containsKey(y)) {
-                    blocksPerY.put(y, 1);
-                } else {
-                    blocksPerY.put(y, blocksPerY.get(y) + 1);
+                if (y < 256) {
+                    blocksPerY[y]++;
                 }
                 if (y < lowestY) {
                     lowestY = y;
@@ -1221,31 +1480,37 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
                 if (y > highestY) {
                     highestY = y;
                 }
-                todo.add(pos.up());
-                todo.add(pos.down());
-                todo.add(pos.east());
-                todo.add(pos.west());
-                todo.add(pos.south());
-                todo.add(pos.north());
+                if (tail + 6 > todo.length) {
+                    // Compact the queue (or make it bigger if that doesn't help enough)
+                    int remaining = tail - head;
+                    int[] newTodo = remaining + 6 > todo.length / 2 ? new int[todo.length * 2] : todo;
+                    System.arraycopy(todo, head, newTodo, 0, remaining);
+                    todo = newTodo;
+                    blobQueue = newTodo;
+                    head = 0;
+                    tail = remaining;
+                }
+                todo[tail++] = pack(x, y + 1, z);
+                todo[tail++] = pack(x, y - 1, z);
+                todo[tail++] = pack(x + 1, y, z);
+                todo[tail++] = pack(x - 1, y, z);
+                todo[tail++] = pack(x, y, z + 1);
+                todo[tail++] = pack(x, y, z - 1);
             }
 
-            avgdamage /= (float) connectedBlocks.size();
+            avgdamage /= (float) size;
         }
 
     }
 
-    private Blob findBlob(List<Blob> blobs, int index) {
-        for (Blob blob : blobs) {
-            if (blob.contains(index)) {
-                return blob;
-            }
-        }
-        return null;
+    private Blob newBlob(int starty, int endy) {
+        lastBlobLabel++;
+        return new Blob(lastBlobLabel, starty, endy);
     }
 
 
-    /// Fix floating blocks after an explosion
-    private void fixAfterExplosionNew(ChunkPrimer primer, BuildingInfo info, Random rand) {
+    /// Fix floating blocks after an explosion. Package private for the benchmarks
+    void fixAfterExplosionNew(ChunkPrimer primer, BuildingInfo info, Random rand) {
         int start = info.getDamageArea().getLowestExplosionHeight();
         if (start == -1) {
             // Nothing is affected
@@ -1253,20 +1518,26 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         }
         int end = info.getDamageArea().getHighestExplosionHeight();
 
+        // A chunk can't have more blobs than blocks. Reset the labels here if they could
+        // run out while handling this chunk
+        if (lastBlobLabel > Integer.MAX_VALUE - blobLabels.length) {
+            Arrays.fill(blobLabels, 0);
+            lastBlobLabel = 0;
+        }
+
         List<Blob> blobs = new ArrayList<>();
+        // Labels before this one belong to earlier chunks
+        int firstLabel = lastBlobLabel + 1;
 
         for (int x = 0; x < 16; x++) {
             for (int z = 0; z < 16; z++) {
                 int index = (x << 12) | (z << 8) + start;
                 for (int y = start; y < end; y++) {
                     char p = primer.data[index];
-                    if (p != airChar && p != liquidChar) {
-                        Blob blob = findBlob(blobs, index);
-                        if (blob == null) {
-                            blob = new Blob(start, end + 6);
-                            blob.scan(info, primer, airChar, liquidChar, new BlockPos(x, y, z));
-                            blobs.add(blob);
-                        }
+                    if (p != airChar && p != liquidChar && blobLabels[index] < firstLabel) {
+                        Blob blob = newBlob(start, end + 6);
+                        blob.scan(info, primer, airChar, liquidChar, x, y, z);
+                        blobs.add(blob);
                     }
                     index++;
                 }
@@ -1278,8 +1549,8 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
 //            if (blob.getAvgdamage() > .3f && blob.getCntMindamage() < 10) { // @todo configurable?
 //                int y = blob.needsSplitting();
 //                if (y != -1) {
-//                    Set<Integer> toRemove = blob.cut(y);
-//                    for (Integer index : toRemove) {
+//                    int[] toRemove = blob.cut(y);
+//                    for (int index : toRemove) {
 //                        primer.data[index] = ((index & 0xff) < waterLevel) ? liquidChar : airChar;
 //                    }
 //                }
@@ -1294,22 +1565,23 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         });
 
 
-        Blob blocksToMove = new Blob(0, 256);
+        Set<Integer> blocksToMove = new HashSet<>();
         for (Blob blob : blobs) {
             if (!blob.destroyOrMoveThis(provider)) {
                 // The rest of the blobs doesn't have to be destroyed anymore
                 break;
             }
-            if (rand.nextFloat() < provider.profile.DESTROY_OR_MOVE_CHANCE || blob.connectedBlocks.size() < provider.profile.DESTROY_SMALL_SECTIONS_SIZE
+            if (rand.nextFloat() < provider.profile.DESTROY_OR_MOVE_CHANCE || blob.getSize() < provider.profile.DESTROY_SMALL_SECTIONS_SIZE
                     || blob.connections < 5) {
-                for (Integer index : blob.connectedBlocks) {
+                for (int i = 0; i < blob.size; i++) {
+                    int index = blob.blocks[i];
                     primer.data[index] = ((index & 0xff) < waterLevel) ? liquidChar : airChar;
                 }
             } else {
-                blocksToMove.connectedBlocks.addAll(blob.connectedBlocks);
+                blocksToMove.addAll(blob.getBlockSet());
             }
         }
-        for (Integer index : blocksToMove.connectedBlocks) {
+        for (Integer index : blocksToMove) {
             char c = primer.data[index];
             primer.data[index] = ((index & 0xff) < waterLevel) ? liquidChar : airChar;
             index--;
@@ -1400,7 +1672,7 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
 
     private double[] ruinBuffer = new double[256];
 
-    private void generateRuins(ChunkPrimer primer, BuildingInfo info) {
+    private void generateRuins(ChunkPrimer primer, BuildingInfo info, Random rand) {
         if (info.ruinHeight < 0) {
             return;
         }
@@ -1427,8 +1699,8 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
                     vl = (int) (provider.profile.RUBBLE_LEAVE_SCALE < 0.01f ? 0 : leavesBuffer[x + z * 16] / provider.profile.RUBBLE_LEAVE_SCALE);
                 }
                 while (height > 0) {
-                    Character damage = info.getCompiledPalette().canBeDamagedToIronBars(primer.data[index]);
-                    if ((damage != null || primer.data[index-1] == ironbarsChar) && primer.data[index-1] != airChar && primer.data[index-1] != liquidChar && provider.rand.nextFloat() < .2f) {
+                    int damage = info.getCompiledPalette().getDamaged(primer.data[index]);
+                    if ((damage != CompiledPalette.ABSENT || primer.data[index-1] == ironbarsChar) && primer.data[index-1] != airChar && primer.data[index-1] != liquidChar && rand.nextFloat() < .2f) {
                         primer.data[index++] = ironbarsChar;
                     } else {
                         if (vl > 0) {
@@ -1448,7 +1720,7 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         }
     }
 
-    private void generateStreet(ChunkPrimer primer, BuildingInfo info, Random rand) {
+    private void generateStreet(ChunkPrimer primer, BuildingInfo info, ChunkRandom rand) {
         for (int x = 0; x < 16; ++x) {
             for (int z = 0; z < 16; ++z) {
                 int index = (x << 12) | (z << 8);
@@ -1597,7 +1869,7 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
         }
     }
 
-    private void generateRandomVegetation(ChunkPrimer primer, BuildingInfo info, Random rand, int height) {
+    private void generateRandomVegetation(ChunkPrimer primer, BuildingInfo info, ChunkRandom rand, int height) {
         if (info.getXmin().hasBuilding) {
             for (int x = 0 ; x < provider.profile.THICKNESS_OF_RANDOM_LEAFBLOCKS ; x++) {
                 for (int z = 0 ; z < 16 ; z++) {
@@ -1818,101 +2090,85 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
                              int ox, int oy, int oz, boolean airWaterLevel) {
         CompiledPalette compiledPalette = info.getCompiledPalette();
         boolean combinedWithPart = false;
-        for (int x = 0; x < part.getXSize(); x++) {
-            for (int z = 0; z < part.getZSize(); z++) {
-                char[] vs = part.getVSlice(x, z);
-                if (vs != null) {
-                    int rx = ox + transform.rotateX(x, z);
-                    int rz = oz + transform.rotateZ(x, z);
-                    int index = (rx << 12) | (rz << 8) + oy;
-                    int len = vs.length;
-                    for (int y = 0 ; y < len ; y++) {
-                        char c = vs[y];
-                        Character b = compiledPalette.get(c);
-                        if (b == null) {
-                            if (!combinedWithPart) {
-                                Palette localPalette = part.getLocalPalette();
-                                combinedWithPart = true;
-                                if (localPalette != null) {
-                                    compiledPalette = new CompiledPalette(compiledPalette, localPalette);
-                                    b = compiledPalette.get(c);
-                                }
+        PartTemplate template = part.getTemplate(transform);
+        char[] columns = template.getColumns();
+        int len = template.getHeight();
+        for (int i = 0; i < template.getColumnCount(); i++) {
+            int offset = template.getOffset(i);
+            int x = template.getOriginalX(i);
+            int z = template.getOriginalZ(i);
+            int rx = ox + template.getRotatedX(i);
+            int rz = oz + template.getRotatedZ(i);
+            int index = (rx << 12) | (rz << 8) + oy;
+            for (int y = 0 ; y < len ; y++) {
+                char c = columns[offset + y];
+                int found = compiledPalette.find(c);
+                if (found == CompiledPalette.ABSENT) {
+                    if (!combinedWithPart) {
+                        Palette localPalette = part.getLocalPalette();
+                        combinedWithPart = true;
+                        if (localPalette != null) {
+                            compiledPalette = PaletteCache.getCompiledPalette(compiledPalette, localPalette);
+                            found = compiledPalette.find(c);
+                        }
+                    }
+                    if (found == CompiledPalette.ABSENT) {
+                        throw new RuntimeException("Could not find entry '" + c + "' in the palette for part '" + part.getName() + "'!");
+                    }
+                }
+                char b = (char) found;
+                if (transform != Transform.ROTATE_NONE) {
+                    b = rotate(b, transform);
+                }
+                // We don't replace the world where the part is empty (air)
+                if (b != airChar) {
+                    if (b == liquidChar) {
+                        if (provider.profile.AVOID_WATER) {
+                            b = airChar;
+                        }
+                    } else if (b == hardAirChar) {
+                        if (airWaterLevel && !provider.profile.AVOID_WATER) {
+                            b = (oy + y) < waterLevel ? liquidChar : airChar;
+                        } else {
+                            b = airChar;
+                        }
+                    } else if (needsTodo(b)) {
+                        if (b == torchChar) {
+                            if (provider.profile.GENERATE_LIGHTING) {
+                                info.addTorchTodo(index);
+                            } else {
+                                b = airChar;        // No torches
                             }
-                            if (b == null) {
-                                throw new RuntimeException("Could not find entry '" + c + "' in the palette for part '" + part.getName() + "'!");
+                        } else if (b == spawnerChar) {
+                            if (provider.profile.GENERATE_SPAWNERS && !info.noLoot) {
+                                String mobid = part.getMobID(info, x, y, z);
+                                info.getTodoChunk(rx, rz).addSpawnerTodo(new BlockPos(info.chunkX * 16 + rx, oy + y, info.chunkZ * 16 + rz),
+                                        new BuildingInfo.ConditionTodo(mobid, part.getName(), info));
+                            } else {
+                                b = airChar;
                             }
-                        }
-                        if (transform != Transform.ROTATE_NONE) {
-                            if (getRotatableChars().contains(b)) {
-                                IBlockState bs = Block.BLOCK_STATE_IDS.getByValue(b);
-                                bs = bs.withRotation(transform.getMcRotation());
-                                b = (char) Block.BLOCK_STATE_IDS.get(bs);
-                            } else if (getRailChars().contains(b)) {
-                                IBlockState bs = Block.BLOCK_STATE_IDS.getByValue(b);
-                                PropertyEnum<BlockRailBase.EnumRailDirection> shapeProperty;
-                                if (bs.getBlock() == Blocks.RAIL) {
-                                    shapeProperty = BlockRail.SHAPE;
-                                } else if (bs.getBlock() == Blocks.GOLDEN_RAIL) {
-                                    shapeProperty = BlockRailPowered.SHAPE;
-                                } else {
-                                    throw new RuntimeException("Error with rail!");
-                                }
-                                BlockRailBase.EnumRailDirection shape = bs.getValue(shapeProperty);
-                                bs = bs.withProperty(shapeProperty, transform.transform(shape));
-                                b = (char) Block.BLOCK_STATE_IDS.get(bs);
+                        } else if (b == chestChar) {
+                            if (!info.noLoot) {
+                                String lootTable = part.getLootTable(info, x, y, z);
+                                info.getTodoChunk(rx, rz).addChestTodo(new BlockPos(info.chunkX * 16 + rx, oy + y, info.chunkZ * 16 + rz),
+                                        new BuildingInfo.ConditionTodo(lootTable, part.getName(), info));
                             }
-                        }
-                        // We don't replace the world where the part is empty (air)
-                        if (b != airChar) {
-                            if (b == liquidChar) {
-                                if (provider.profile.AVOID_WATER) {
-                                    b = airChar;
-                                }
-                            } else if (b == hardAirChar) {
-                                if (airWaterLevel && !provider.profile.AVOID_WATER) {
-                                    b = (oy + y) < waterLevel ? liquidChar : airChar;
-                                } else {
+                        } else if (b == glowstoneChar) {
+                            info.getTodoChunk(rx, rz).addGenericTodo(new BlockPos(info.chunkX * 16 + rx, oy + y, info.chunkZ * 16 + rz));
+                        } else {
+                            IBlockState bs = Block.BLOCK_STATE_IDS.getByValue(b);
+                            if (bs.getBlock() == Blocks.SAPLING) {
+                                if (provider.profile.AVOID_FOLIAGE) {
                                     b = airChar;
-                                }
-                            } else if (getCharactersNeedingTodo().contains(b)) {
-                                if (b == torchChar) {
-                                    if (provider.profile.GENERATE_LIGHTING) {
-                                        info.addTorchTodo(index);
-                                    } else {
-                                        b = airChar;        // No torches
-                                    }
-                                } else if (b == spawnerChar) {
-                                    if (provider.profile.GENERATE_SPAWNERS && !info.noLoot) {
-                                        String mobid = part.getMobID(info, x, y, z);
-                                        info.getTodoChunk(rx, rz).addSpawnerTodo(new BlockPos(info.chunkX * 16 + rx, oy + y, info.chunkZ * 16 + rz),
-                                                new BuildingInfo.ConditionTodo(mobid, part.getName(), info));
-                                    } else {
-                                        b = airChar;
-                                    }
-                                } else if (b == chestChar) {
-                                    if (!info.noLoot) {
-                                        String lootTable = part.getLootTable(info, x, y, z);
-                                        info.getTodoChunk(rx, rz).addChestTodo(new BlockPos(info.chunkX * 16 + rx, oy + y, info.chunkZ * 16 + rz),
-                                                new BuildingInfo.ConditionTodo(lootTable, part.getName(), info));
-                                    }
-                                } else if (b == glowstoneChar) {
-                                    info.getTodoChunk(rx, rz).addGenericTodo(new BlockPos(info.chunkX * 16 + rx, oy + y, info.chunkZ * 16 + rz));
                                 } else {
-                                    IBlockState bs = Block.BLOCK_STATE_IDS.getByValue(b);
-                                    if (bs.getBlock() == Blocks.SAPLING) {
-                                        if (provider.profile.AVOID_FOLIAGE) {
-                                            b = airChar;
-                                        } else {
-                                            info.getTodoChunk(rx, rz).addSaplingTodo(new BlockPos(info.chunkX * 16 + rx, oy + y, info.chunkZ * 16 + rz));
-                                        }
-                                    }
+                                    info.getTodoChunk(rx, rz).addSaplingTodo(new BlockPos(info.chunkX * 16 + rx, oy + y, info.chunkZ * 16 + rz));
                                 }
                             }
-                            primer.data[index] = b;
                         }
-                        index++;
                     }
+                    primer.data[index] = b;
                 }
+                index++;
             }
         }
         return oy + part.getSliceCount();
@@ -1950,7 +2206,7 @@ public class LostCitiesTerrainGenerator extends NormalTerrainGenerator {
                             index--;
                         }
                         index++;
-                        Character b;
+                        char b;
                         switch (rand.nextInt(5)) {
                             case 0:
                                 b = ironbarsChar;
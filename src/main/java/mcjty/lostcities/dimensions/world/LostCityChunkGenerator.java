@@ -8,12 +8,14 @@ import mcjty.lostcities.api.*;
 import mcjty.lostcities.config.LostCityConfiguration;
 import mcjty.lostcities.config.LostCityProfile;
 import mcjty.lostcities.dimensions.world.lost.BuildingInfo;
+import mcjty.lostcities.dimensions.world.lost.LostCityContext;
 import mcjty.lostcities.dimensions.world.lost.LostStructureOceanMonument;
 import mcjty.lostcities.dimensions.world.lost.cityassets.AssetRegistries;
 import mcjty.lostcities.dimensions.world.lost.cityassets.Condition;
 import mcjty.lostcities.dimensions.world.lost.cityassets.ConditionContext;
 import mcjty.lostcities.dimensions.world.lost.cityassets.WorldStyle;
-import mcjty.lostcities.varia.ChunkCoord;
+import mcjty.lostcities.varia.CacheMonitor;
+import mcjty.lostcities.varia.ChunkMap;
 import net.minecraft.block.BlockFalling;
 import net.minecraft.block.BlockSapling;
 import net.minecraft.block.BlockVine;
@@ -32,6 +34,7 @@ import net.minecraft.world.World;
 import net.minecraft.world.WorldEntitySpawner;
 import net.minecraft.world.WorldType;
 import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeProvider;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.ChunkPrimer;
 import net.minecraft.world.gen.ChunkProviderSettings;
@@ -45,9 +48,7 @@ import net.minecraftforge.event.terraingen.PopulateChunkEvent;
 import net.minecraftforge.event.terraingen.TerrainGen;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 
 import static net.minecraftforge.event.terraingen.InitMapGenEvent.EventType.*;
@@ -57,13 +58,18 @@ public class LostCityChunkGenerator implements CompatChunkGenerator, ILostChunkG
     public LostCityProfile profile; // Current profile
     public WorldStyle worldStyle;
 
+    // Only used on the server thread (populate and structures). The blocks of a chunk use
+    // a random of their own (see ChunkPipeline)
     public Random rand;
     public long seed;
     public int dimensionId;
 
     public World worldObj;
     public WorldType worldType;
-    public final LostCitiesTerrainGenerator terrainGenerator;
+    // The terrain generator has working buffers so every thread gets a copy of its own
+    // (see getTerrainGenerator()). The noise generators are shared
+    private final LostCitiesTerrainGenerator terrainGenerator;
+    private final ThreadLocal<LostCitiesTerrainGenerator> threadTerrainGenerator;
 
     private ChunkProviderSettings settings = null;
 
@@ -74,10 +80,18 @@ public class LostCityChunkGenerator implements CompatChunkGenerator, ILostChunkG
     // Sometimes we have to precalculate primers for a chunk before the
     // chunk is generated. In that case we cache them here so that when the
     // chunk is really generated it will find it and use that instead of
-    // making that primer again
-    // @todo, make this cache timed so that primers expire if they are not used quickly enough?
-    private Map<ChunkCoord, ChunkPrimer> cachedPrimers = new HashMap<>();
-    private Map<ChunkCoord, ChunkHeightmap> cachedHeightmaps = new HashMap<>();
+    // making that primer again. Both caches are bounded by the memory budget in
+    // the profile. Dropped entries are simply calculated again
+    private final ChunkMap<ChunkPrimer> cachedPrimers = new ChunkMap<>();
+    private final ChunkMap<ChunkHeightmap> cachedHeightmaps = new ChunkMap<>();
+
+    // Estimated memory used by a primer (65536 chars and headers)
+    public static final int PRIMER_MEMORY = 65536 * 2 + 32;
+
+    private final ChunkPipeline pipeline = new ChunkPipeline(this);
+
+    // Caches and noise generators of this dimension (BuildingInfo, railways, highways, ...)
+    private final LostCityContext context;
 
     private MapGenStronghold strongholdGenerator = new MapGenStronghold();
     private StructureOceanMonument oceanMonumentGenerator = new LostStructureOceanMonument();
@@ -121,6 +135,8 @@ public class LostCityChunkGenerator implements CompatChunkGenerator, ILostChunkG
         profile = LostWorldType.getProfile(world);
 
         System.out.println("LostCityChunkGenerator.LostCityChunkGenerator: profile=" + profile.getName());
+        cachedPrimers.setMaxSize((int) Math.max(1, profile.PRIMER_CACHE_MB * 1024L * 1024L / PRIMER_MEMORY));
+        cachedHeightmaps.setMaxSize((int) Math.max(1, profile.HEIGHTMAP_CACHE_MB * 1024L * 1024L / ChunkHeightmap.MEMORY));
         worldStyle = AssetRegistries.WORLDSTYLES.get(profile.getWorldStyle());
         if (worldStyle == null) {
             throw new RuntimeException("Unknown worldstyle '" + profile.getWorldStyle() + "'!");
@@ -137,90 +153,158 @@ public class LostCityChunkGenerator implements CompatChunkGenerator, ILostChunkG
 
         this.seed = seed;
         this.rand = new Random((seed + 516) * 314);
+        this.context = new LostCityContext(this, profile, seed);
 
         int waterLevel = (byte) (profile.GROUNDLEVEL - profile.WATERLEVEL_OFFSET);
         world.setSeaLevel(waterLevel);
 
         terrainGenerator = new LostCitiesTerrainGenerator(this);
         terrainGenerator.setup(world);
+        threadTerrainGenerator = ThreadLocal.withInitial(() -> new LostCitiesTerrainGenerator(terrainGenerator));
+    }
+
+    /**
+     * The terrain generator for the calling thread
+     */
+    public LostCitiesTerrainGenerator getTerrainGenerator() {
+        return threadTerrainGenerator.get();
     }
 
     public ChunkPrimer generatePrimer(int chunkX, int chunkZ) {
-        this.rand.setSeed(chunkX * 341873128712L + chunkZ * 132897987541L);
         ChunkPrimer chunkprimer = new ChunkPrimer();
 
         if (otherGenerator != null) {
-            // For ATG, experimental
-            otherGenerator.fillChunk(chunkX, chunkZ, chunkprimer);
+            // For ATG, experimental. We don't know if that is thread safe
+            synchronized (otherGenerator) {
+                otherGenerator.fillChunk(chunkX, chunkZ, chunkprimer);
+            }
         } else {
-            terrainGenerator.doCoreChunk(chunkX, chunkZ, chunkprimer);
+            getTerrainGenerator().doCoreChunk(chunkX, chunkZ, chunkprimer);
         }
         return chunkprimer;
     }
 
-    // Get a heightmap for a chunk. If needed calculate (and cache) a primer
+    // Get a heightmap for a chunk. Unless we already have the primer for this chunk
+    // the heightmap is calculated directly from the noise without making the blocks
     public ChunkHeightmap getHeightmap(int chunkX, int chunkZ) {
-        ChunkCoord key = new ChunkCoord(worldObj.provider.getDimension(), chunkX, chunkZ);
-        if (cachedHeightmaps.containsKey(key)) {
-            return cachedHeightmaps.get(key);
-        } else if (cachedPrimers.containsKey(key)) {
-            ChunkHeightmap heightmap = new ChunkHeightmap(cachedPrimers.get(key));
-            cachedHeightmaps.put(key, heightmap);
+        ChunkHeightmap heightmap = cachedHeightmaps.get(chunkX, chunkZ);
+        if (heightmap != null) {
             return heightmap;
+        }
+        ChunkPrimer primer = cachedPrimers.get(chunkX, chunkZ);
+        if (primer != null) {
+            heightmap = new ChunkHeightmap(primer);
+        } else if (otherGenerator != null) {
+            // For ATG we can only get the heights from the real primer
+            primer = generatePrimer(chunkX, chunkZ);
+            cachedPrimers.put(chunkX, chunkZ, primer);
+            heightmap = new ChunkHeightmap(primer);
         } else {
-            ChunkPrimer primer = generatePrimer(chunkX, chunkZ);
-            cachedPrimers.put(key, primer);
-            ChunkHeightmap heightmap = new ChunkHeightmap(cachedPrimers.get(key));
-            cachedHeightmaps.put(key, heightmap);
-            return heightmap;
+            heightmap = generateHeightmap(chunkX, chunkZ);
+        }
+        return cachedHeightmaps.putIfAbsent(chunkX, chunkZ, heightmap);
+    }
+
+    private ChunkHeightmap generateHeightmap(int chunkX, int chunkZ) {
+        return getTerrainGenerator().doCoreHeightmap(chunkX, chunkZ);
+    }
+
+
+
+    // Get the core terrain primer for a non city chunk. If we calculated it earlier reuse it
+    public ChunkPrimer getCorePrimer(int chunkX, int chunkZ) {
+        ChunkPrimer chunkprimer = cachedPrimers.remove(chunkX, chunkZ);
+        if (chunkprimer == null) {
+            chunkprimer = generatePrimer(chunkX, chunkZ);
+        }
+        // Calculate the chunk heightmap in case we need it later
+        if (cachedHeightmaps.get(chunkX, chunkZ) == null) {
+            // We might need this later
+            cachedHeightmaps.putIfAbsent(chunkX, chunkZ, new ChunkHeightmap(chunkprimer));
         }
+        return chunkprimer;
+    }
+
+    public LostCityContext getContext() {
+        return context;
+    }
+
+    public ChunkPipeline getPipeline() {
+        return pipeline;
     }
 
+    /**
+     * Report the occupancy of the primer and heightmap caches of this generator
+     */
+    public void reportCaches(CacheMonitor monitor) {
+        reportCache(monitor, "primers", cachedPrimers, PRIMER_MEMORY);
+        reportCache(monitor, "heightmaps", cachedHeightmaps, ChunkHeightmap.MEMORY);
+    }
+
+    private static void reportCache(CacheMonitor monitor, String name, ChunkMap<?> cache, int entryMemory) {
+        int size = cache.size();
+        monitor.report(name, size, (long) size * entryMemory, (long) cache.getMaxSize() * entryMemory);
+    }
 
+    public String getCacheStats() {
+        return "primers: " + cachedPrimers.getStats() + ", heightmaps: " + cachedHeightmaps.getStats();
+    }
 
     @Override
     public Chunk provideChunk(int chunkX, int chunkZ) {
         LostCitiesTerrainGenerator.setupChars();
         boolean isCity = BuildingInfo.isCity(chunkX, chunkZ, this);
 
-        ChunkPrimer chunkprimer;
-        if (isCity) {
-            chunkprimer = new ChunkPrimer();
-        } else {
-            ChunkCoord key = new ChunkCoord(worldObj.provider.getDimension(), chunkX, chunkZ);
-            if (cachedPrimers.containsKey(key)) {
-                // We calculated a primer earlier. Reuse it
-                chunkprimer = cachedPrimers.get(key);
-                cachedPrimers.remove(key);
-            } else {
-                chunkprimer = generatePrimer(chunkX, chunkZ);
-            }
-            // Calculate the chunk heightmap in case we need it later
-            if (!cachedHeightmaps.containsKey(key)) {
-                // We might need this later
-                cachedHeightmaps.put(key, new ChunkHeightmap(chunkprimer));
-            }
-        }
+        ChunkPipeline.PreparedChunk prepared = pipeline.take(chunkX, chunkZ);
+        ChunkPrimer chunkprimer = prepared.getPrimer();
 
-        terrainGenerator.generate(chunkX, chunkZ, chunkprimer);
-
-        this.biomesForGeneration = this.worldObj.getBiomeProvider().getBiomes(this.biomesForGeneration, chunkX * 16, chunkZ * 16, 16, 16);
-        terrainGenerator.replaceBlocksForBiome(chunkX, chunkZ, chunkprimer, this.biomesForGeneration);
+        long start = GenerationTimers.start();
+        BiomeProvider biomeProvider = this.worldObj.getBiomeProvider();
+        synchronized (biomeProvider) {
+            this.biomesForGeneration = biomeProvider.getBiomes(this.biomesForGeneration, chunkX * 16, chunkZ * 16, 16, 16);
+        }
+        getTerrainGenerator().replaceBlocksForBiome(chunkX, chunkZ, chunkprimer, this.biomesForGeneration, prepared.getRandom());
+        GenerationTimers.record(GenerationTimers.Timer.BIOMES, start);
 
         if (profile.GENERATE_CAVES) {
+            start = GenerationTimers.start();
             this.caveGenerator.generate(this.worldObj, chunkX, chunkZ, chunkprimer);
+            GenerationTimers.record(GenerationTimers.Timer.CAVES, start);
         }
         if (profile.GENERATE_RAVINES) {
             if (!profile.PREVENT_LAKES_RAVINES_IN_CITIES || !isCity) {
+                start = GenerationTimers.start();
                 this.ravineGenerator.generate(this.worldObj, chunkX, chunkZ, chunkprimer);
+                GenerationTimers.record(GenerationTimers.Timer.RAVINES, start);
             }
         }
 
+        start = GenerationTimers.start();
+        generateStructures(chunkX, chunkZ, chunkprimer, isCity);
+        GenerationTimers.record(GenerationTimers.Timer.STRUCTURES, start);
+
+        start = GenerationTimers.start();
+        Chunk chunk = new Chunk(this.worldObj, chunkprimer, chunkX, chunkZ);
+        byte[] abyte = chunk.getBiomeArray();
+
+        for (int i = 0; i < abyte.length; ++i) {
+            abyte[i] = (byte) Biome.getIdForBiome(this.biomesForGeneration[i]);
+        }
+
+        chunk.generateSkylightMap();
+        GenerationTimers.record(GenerationTimers.Timer.CHUNK, start);
+        return chunk;
+    }
+
+    private void generateStructures(int chunkX, int chunkZ, ChunkPrimer chunkprimer, boolean isCity) {
         if (profile.GENERATE_MINESHAFTS) {
+            long start = GenerationTimers.start();
             this.mineshaftGenerator.generate(this.worldObj, chunkX, chunkZ, chunkprimer);
+            GenerationTimers.record(GenerationTimers.Timer.MINESHAFTS, start);
         }
 
         if (profile.GENERATE_VILLAGES) {
+            long start = GenerationTimers.start();
             if (profile.PREVENT_VILLAGES_IN_CITIES) {
                 if (!isCity) {
                     this.villageGenerator.generate(this.worldObj, chunkX, chunkZ, chunkprimer);
@@ -228,41 +312,36 @@ public class LostCityChunkGenerator implements CompatChunkGenerator, ILostChunkG
             } else {
                 this.villageGenerator.generate(this.worldObj, chunkX, chunkZ, chunkprimer);
             }
+            GenerationTimers.record(GenerationTimers.Timer.VILLAGES, start);
         }
 
         if (profile.GENERATE_STRONGHOLDS) {
+            long start = GenerationTimers.start();
             this.strongholdGenerator.generate(this.worldObj, chunkX, chunkZ, chunkprimer);
+            GenerationTimers.record(GenerationTimers.Timer.STRONGHOLDS, start);
         }
 
         if (profile.GENERATE_SCATTERED) {
+            long start = GenerationTimers.start();
             this.scatteredFeatureGenerator.generate(this.worldObj, chunkX, chunkZ, chunkprimer);
+            GenerationTimers.record(GenerationTimers.Timer.SCATTERED, start);
         }
 
         if (profile.GENERATE_OCEANMONUMENTS) {
+            long start = GenerationTimers.start();
             this.oceanMonumentGenerator.generate(this.worldObj, chunkX, chunkZ, chunkprimer);
+            GenerationTimers.record(GenerationTimers.Timer.MONUMENTS, start);
         }
-
-        Chunk chunk = new Chunk(this.worldObj, chunkprimer, chunkX, chunkZ);
-        byte[] abyte = chunk.getBiomeArray();
-
-        for (int i = 0; i < abyte.length; ++i) {
-            abyte[i] = (byte) Biome.getIdForBiome(this.biomesForGeneration[i]);
-        }
-
-        chunk.generateSkylightMap();
-
-        return chunk;
     }
 
     private void generateTrees(Random random, int chunkX, int chunkZ, World world, LostCityChunkGenerator provider) {
         BuildingInfo info = BuildingInfo.getBuildingInfo(chunkX, chunkZ, provider);
-        for (BlockPos pos : info.getSaplingTodo()) {
+        for (BlockPos pos : info.takeSaplingTodo()) {
             IBlockState state = world.getBlockState(pos);
             if (state.getBlock() == Blocks.SAPLING) {
                 ((BlockSapling)Blocks.SAPLING).generateTree(world, pos, state, random);
             }
         }
-        info.clearSaplingTodo();
     }
 
     private void generateVines(Random random, int chunkX, int chunkZ, World world, LostCityChunkGenerator provider) {
@@ -338,7 +417,7 @@ public class LostCityChunkGenerator implements CompatChunkGenerator, ILostChunkG
     private void generateLootSpawners(Random random, int chunkX, int chunkZ, World world, LostCityChunkGenerator chunkGenerator) {
         BuildingInfo info = BuildingInfo.getBuildingInfo(chunkX, chunkZ, chunkGenerator);
 
-        for (Pair<BlockPos, BuildingInfo.ConditionTodo> pair : info.getMobSpawnerTodo()) {
+        for (Pair<BlockPos, BuildingInfo.ConditionTodo> pair : info.takeMobSpawnerTodo()) {
             BlockPos pos = pair.getKey();
             // Double check that it is still a spawner (could be destroyed by explosion)
             if (world.getBlockState(pos).getBlock() == Blocks.MOB_SPAWNER) {
@@ -367,10 +446,9 @@ public class LostCityChunkGenerator implements CompatChunkGenerator, ILostChunkG
                 }
             }
         }
-        info.clearMobSpawnerTodo();
 
 
-        for (Pair<BlockPos, BuildingInfo.ConditionTodo> pair : info.getChestTodo()) {
+        for (Pair<BlockPos, BuildingInfo.ConditionTodo> pair : info.takeChestTodo()) {
             BlockPos pos = pair.getKey();
             // Double check that it is still a chest (could be destroyed by explosion)
             IBlockState state = world.getBlockState(pos);
@@ -380,16 +458,14 @@ public class LostCityChunkGenerator implements CompatChunkGenerator, ILostChunkG
                 }
             }
         }
-        info.clearChestTodo();
 
 
-        for (BlockPos pos : info.getGenericTodo()) {
+        for (BlockPos pos : info.takeGenericTodo()) {
             IBlockState state = world.getBlockState(pos);
             if (state.getBlock() == Blocks.GLOWSTONE) {
                 world.setBlockState(pos, state, 3);
             }
         }
-        info.clearGenericTodo();
     }
 
 
@@ -422,6 +498,7 @@ public class LostCityChunkGenerator implements CompatChunkGenerator, ILostChunkG
 
     @Override
     public void populate(int chunkX, int chunkZ) {
+        long populateStart = GenerationTimers.start();
         BlockFalling.fallInstantly = true;
         int x = chunkX * 16;
         int z = chunkZ * 16;
@@ -437,6 +514,7 @@ public class LostCityChunkGenerator implements CompatChunkGenerator, ILostChunkG
 
         ChunkPos cp = new ChunkPos(chunkX, chunkZ);
 
+        long structuresStart = GenerationTimers.start();
         if (profile.GENERATE_MINESHAFTS) {
             this.mineshaftGenerator.generateStructure(w, this.rand, cp);
         }
@@ -458,6 +536,7 @@ public class LostCityChunkGenerator implements CompatChunkGenerator, ILostChunkG
         if (profile.GENERATE_OCEANMONUMENTS) {
             this.oceanMonumentGenerator.generateStructure(w, this.rand, cp);
         }
+        GenerationTimers.record(GenerationTimers.Timer.POPULATE_STRUCTURES, structuresStart);
 
         int k1;
         int l1;
@@ -524,10 +603,12 @@ public class LostCityChunkGenerator implements CompatChunkGenerator, ILostChunkG
         generateTrees(rand, chunkX, chunkZ, w, this);
         generateVines(rand, chunkX, chunkZ, w, this);
         generateLootSpawners(rand, chunkX, chunkZ, w, this);
+        getContext().removeTodo(chunkX, chunkZ);
 
         MinecraftForge.EVENT_BUS.post(new PopulateChunkEvent.Post(this, w, rand, chunkX, chunkZ, flag));
 
         BlockFalling.fallInstantly = false;
+        GenerationTimers.record(GenerationTimers.Timer.POPULATE, populateStart);
     }
 
     @Override
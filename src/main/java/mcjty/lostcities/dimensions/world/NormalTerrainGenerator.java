@@ -2,7 +2,6 @@ package mcjty.lostcities.dimensions.world;
 
 import mcjty.lib.tools.MathTools;
 import mcjty.lostcities.dimensions.world.lost.BiomeInfo;
-import mcjty.lostcities.varia.ChunkCoord;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.chunk.ChunkPrimer;
@@ -13,6 +12,8 @@ import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.terraingen.ChunkGeneratorEvent;
 import net.minecraftforge.fml.common.eventhandler.Event;
 
+import java.util.Random;
+
 public class NormalTerrainGenerator {
     private World world;
     protected LostCityChunkGenerator provider;
@@ -48,6 +49,19 @@ public class NormalTerrainGenerator {
         }
     }
 
+    // A generator with working buffers of its own that shares the noise generators of
+    // 'other'. These don't change after setup() so several threads can use them
+    protected NormalTerrainGenerator(NormalTerrainGenerator other) {
+        this.provider = other.provider;
+        this.world = other.world;
+        this.heightMap = new double[825];
+        this.biomeWeights = other.biomeWeights;
+        this.minLimitPerlinNoise = other.minLimitPerlinNoise;
+        this.maxLimitPerlinNoise = other.maxLimitPerlinNoise;
+        this.mainPerlinNoise = other.mainPerlinNoise;
+        this.surfaceNoise = other.surfaceNoise;
+        this.depthNoise = other.depthNoise;
+    }
 
     public void setup(World world) {
         this.world = world;
@@ -86,7 +100,7 @@ public class NormalTerrainGenerator {
         int i = 0;
         int j = 0;
 
-        Biome[] biomes = BiomeInfo.getBiomeInfo(provider, new ChunkCoord(provider.dimensionId, chunkX, chunkZ)).getBiomes();
+        BiomeInfo biomes = BiomeInfo.getBiomeInfo(provider, chunkX, chunkZ);
 
         float biomeDepthOffSet = settings.biomeDepthOffSet;
         float biomeDepthWeight = settings.biomeDepthWeight;
@@ -98,12 +112,12 @@ public class NormalTerrainGenerator {
                 float f2 = 0.0F;
                 float f3 = 0.0F;
                 float f4 = 0.0F;
-                Biome biome = biomes[k + 2 + (l + 2) * 10];
+                Biome biome = biomes.getBiome(k + 2 + (l + 2) * 10);
                 float biomeBaseHeight = biome.getBaseHeight();
 
                 for (int j1 = -2; j1 <= 2; ++j1) {
                     for (int k1 = - 2; k1 <=  2; ++k1) {
-                        Biome biome1 = biomes[k + j1 + 2 + (l + k1 + 2) * 10];
+                        Biome biome1 = biomes.getBiome(k + j1 + 2 + (l + k1 + 2) * 10);
                         float biome1BaseHeight = biome1.getBaseHeight();
 
                         float baseHeight = biomeDepthOffSet + biome1BaseHeight * biomeDepthWeight;
@@ -181,7 +195,7 @@ public class NormalTerrainGenerator {
         }
     }
 
-    public void replaceBlocksForBiome(int chunkX, int chunkZ, ChunkPrimer primer, Biome[] Biomes) {
+    public void replaceBlocksForBiome(int chunkX, int chunkZ, ChunkPrimer primer, Biome[] Biomes, Random rand) {
         ChunkGeneratorEvent.ReplaceBiomeBlocks event = new ChunkGeneratorEvent.ReplaceBiomeBlocks(provider, chunkX, chunkZ, primer, world);
         MinecraftForge.EVENT_BUS.post(event);
         if (event.getResult() == Event.Result.DENY) {
@@ -194,7 +208,7 @@ public class NormalTerrainGenerator {
         for (int k = 0; k < 16; ++k) {
             for (int l = 0; l < 16; ++l) {
                 Biome Biome = Biomes[l + k * 16];
-                Biome.genTerrainBlocks(world, provider.rand, primer, chunkX * 16 + k, chunkZ * 16 + l, this.depthBuffer[l + k * 16]);
+                Biome.genTerrainBlocks(world, rand, primer, chunkX * 16 + k, chunkZ * 16 + l, this.depthBuffer[l + k * 16]);
             }
         }
     }
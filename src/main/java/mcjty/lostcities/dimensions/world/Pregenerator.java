@@ -0,0 +1,409 @@
+package mcjty.lostcities.dimensions.world;
+
+import mcjty.lib.tools.ChatTools;
+import mcjty.lostcities.LostCities;
+import mcjty.lostcities.dimensions.world.lost.cityassets.PaletteCache;
+import mcjty.lostcities.proxy.CommonProxy;
+import mcjty.lostcities.varia.ChunkMap;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.gen.ChunkProviderServer;
+import net.minecraftforge.common.DimensionManager;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Pregenerate a square area of a Lost City world. Chunks are generated on the server
+ * thread a few at a time every tick (see onServerTick()). The chunks that come next are
+ * prepared in parallel on the worker threads of the pipeline ('generationThreads' in the
+ * config). If that is 0 the pregenerator starts worker threads of its own. Progress is written to a checkpoint file (together with the seed and profile
+ * of the world) so that the pregeneration can be resumed after a restart.
+ */
+public class Pregenerator {
+
+    public enum Order {
+        SPIRAL,     // From the center outwards
+        REGION      // Region file by region file. Better locality so more chunks are populated while loaded
+    }
+
+    // Time we can spend generating every tick
+    private static final long TICK_BUDGET_NANOS = 40_000_000L;
+    // How many chunks we prepare ahead of the chunk we are generating. Must be less than
+    // ChunkPipeline.MAX_PREPARED or prepared chunks are dropped before we get to them
+    private static final int LOOKAHEAD = 256;
+    // Generated chunks are kept loaded for a while so that their neighbours can populate them
+    private static final int KEEP_LOADED = 4096;
+    private static final long REPORT_INTERVAL_NANOS = 10_000_000_000L;
+
+    private static Pregenerator current = null;
+
+    private final WorldServer world;
+    private final int dimension;
+    private final int centerX;
+    private final int centerZ;
+    private final int radius;
+    private final Order order;
+    private final ICommandSender sender;
+
+    private final ChunkIterator generateIterator;
+    private final ChunkIterator planIterator;
+    private final ArrayDeque<Long> loaded = new ArrayDeque<>();
+    // Our own worker threads in case the pipeline has none. Stopped when we are done
+    private ExecutorService ownWorkers = null;
+
+    private final long startTime = System.nanoTime();
+    private final long startIndex;
+    private long generated = 0;
+    private long lastReport = System.nanoTime();
+
+    private Pregenerator(WorldServer world, int centerX, int centerZ, int radius, Order order, long index, ICommandSender sender) {
+        this.world = world;
+        this.dimension = world.provider.getDimension();
+        this.centerX = centerX;
+        this.centerZ = centerZ;
+        this.radius = radius;
+        this.order = order;
+        this.sender = sender;
+        this.generateIterator = new ChunkIterator(centerX, centerZ, radius, order);
+        this.planIterator = new ChunkIterator(centerX, centerZ, radius, order);
+        generateIterator.skip(index);
+        planIterator.skip(index);
+        this.startIndex = index;
+    }
+
+    public static Pregenerator getCurrent() {
+        return current;
+    }
+
+    public static void start(WorldServer world, int centerX, int centerZ, int radius, Order order, ICommandSender sender) {
+        current = new Pregenerator(world, centerX, centerZ, radius, order, 0, sender);
+        current.report("Pregeneration of " + current.generateIterator.getTotal() + " chunks started");
+    }
+
+    /**
+     * Resume from the checkpoint file of this world. Returns false if there is no checkpoint.
+     * A checkpoint of another world (different seed or profile) is not resumed
+     */
+    public static boolean resume(WorldServer world, ICommandSender sender) {
+        File file = getCheckpointFile(world.provider.getDimension());
+        if (!file.exists()) {
+            return false;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        LostCityChunkGenerator generator = (LostCityChunkGenerator) world.getChunkProvider().chunkGenerator;
+        if (!Long.toString(generator.seed).equals(properties.getProperty("seed"))
+                || !generator.profile.getName().equals(properties.getProperty("profile"))) {
+            ChatTools.addChatMessage(sender, new TextComponentString("The checkpoint of this dimension was made for another seed or profile! Use 'start' instead"));
+            return true;
+        }
+        current = new Pregenerator(world,
+                Integer.parseInt(properties.getProperty("centerX")),
+                Integer.parseInt(properties.getProperty("centerZ")),
+                Integer.parseInt(properties.getProperty("radius")),
+                Order.valueOf(properties.getProperty("order")),
+                Long.parseLong(properties.getProperty("index")), sender);
+        current.report("Pregeneration resumed at chunk " + current.startIndex + " of " + current.generateIterator.getTotal());
+        return true;
+    }
+
+    public static void stop() {
+        if (current != null) {
+            current.writeCheckpoint();
+            current.report("Pregeneration stopped at chunk " + current.generateIterator.getIndex() + ". Use 'resume' to continue");
+            current.stopWorkers();
+            current = null;
+        }
+    }
+
+    public static void onServerTick() {
+        if (current != null) {
+            if (DimensionManager.getWorld(current.dimension) != current.world) {
+                // World was unloaded
+                current.writeCheckpoint();
+                current.stopWorkers();
+                current = null;
+                return;
+            }
+            current.tick();
+        }
+    }
+
+    private static File getCheckpointFile(int dimension) {
+        return new File(CommonProxy.modConfigDir.getPath() + File.separator + "lostcities", "pregen_" + dimension + ".txt");
+    }
+
+    private LostCityChunkGenerator getGenerator() {
+        return (LostCityChunkGenerator) world.getChunkProvider().chunkGenerator;
+    }
+
+    private void tick() {
+        ChunkProviderServer chunkProvider = world.getChunkProvider();
+        ChunkPipeline pipeline = getGenerator().getPipeline();
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < TICK_BUDGET_NANOS) {
+            if (!generateIterator.hasNext()) {
+                finish();
+                return;
+            }
+            plan(chunkProvider, pipeline);
+
+            generateIterator.next();
+            int chunkX = generateIterator.getX();
+            int chunkZ = generateIterator.getZ();
+            if (!chunkProvider.isChunkGeneratedAt(chunkX, chunkZ)) {
+                chunkProvider.provideChunk(chunkX, chunkZ);
+                generated++;
+                loaded.add(ChunkMap.toLong(chunkX, chunkZ));
+            }
+            while (loaded.size() > KEEP_LOADED) {
+                unload(chunkProvider, loaded.poll());
+            }
+        }
+
+        if (System.nanoTime() - lastReport > REPORT_INTERVAL_NANOS) {
+            lastReport = System.nanoTime();
+            writeCheckpoint();
+            report(getStatus());
+        }
+    }
+
+    // Let the worker threads prepare the chunks ahead of us. Without worker threads
+    // everything is done on this thread when the chunk is generated
+    private void plan(ChunkProviderServer chunkProvider, ChunkPipeline pipeline) {
+        if (!ChunkPipeline.canUseWorkers()) {
+            return;
+        }
+        if (!pipeline.hasWorkers() && ownWorkers == null) {
+            // Keep one core for the server thread
+            int threads = Runtime.getRuntime().availableProcessors() - 1;
+            if (threads <= 0) {
+                return;
+            }
+            ownWorkers = ChunkPipeline.createExecutor(threads, "LostCities Pregenerator");
+        }
+        while (planIterator.hasNext() && planIterator.getIndex() < generateIterator.getIndex() + LOOKAHEAD) {
+            planIterator.next();
+            int chunkX = planIterator.getX();
+            int chunkZ = planIterator.getZ();
+            if (!chunkProvider.isChunkGeneratedAt(chunkX, chunkZ)) {
+                if (ownWorkers == null) {
+                    pipeline.prepareAsync(chunkX, chunkZ);
+                } else {
+                    pipeline.prepareAsync(chunkX, chunkZ, ownWorkers);
+                }
+            }
+        }
+    }
+
+    // Chunks that are already queued are still prepared. These are dropped from the
+    // pipeline later if nobody needs them (see ChunkPipeline.MAX_PREPARED)
+    private void stopWorkers() {
+        if (ownWorkers != null) {
+            ownWorkers.shutdown();
+            ownWorkers = null;
+        }
+    }
+
+    private void unload(ChunkProviderServer chunkProvider, long pos) {
+        int chunkX = (int) (pos >> 32);
+        int chunkZ = (int) pos;
+        // Don't unload chunks that a player can see
+        if (!world.getPlayerChunkMap().contains(chunkX, chunkZ)) {
+            Chunk chunk = chunkProvider.getLoadedChunk(chunkX, chunkZ);
+            if (chunk != null) {
+                chunkProvider.queueUnload(chunk);
+            }
+        }
+    }
+
+    private void finish() {
+        File file = getCheckpointFile(dimension);
+        if (file.exists() && !file.delete()) {
+            LostCities.logger.warn("Could not delete " + file.getName());
+        }
+        report("Pregeneration finished. " + getStatus());
+        stopWorkers();
+        current = null;
+    }
+
+    private void writeCheckpoint() {
+        Properties properties = new Properties();
+        properties.setProperty("centerX", Integer.toString(centerX));
+        properties.setProperty("centerZ", Integer.toString(centerZ));
+        properties.setProperty("radius", Integer.toString(radius));
+        properties.setProperty("order", order.name());
+        properties.setProperty("index", Long.toString(generateIterator.getIndex()));
+        // Only resume for the same world
+        properties.setProperty("seed", Long.toString(getGenerator().seed));
+        properties.setProperty("profile", getGenerator().profile.getName());
+        File file = getCheckpointFile(dimension);
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "Lost Cities pregeneration checkpoint");
+        } catch (IOException e) {
+            LostCities.logger.warn("Could not write " + file.getName(), e);
+        }
+    }
+
+    public String getStatus() {
+        long done = generateIterator.getIndex();
+        long total = generateIterator.getTotal();
+        double seconds = (System.nanoTime() - startTime) / 1.0e9;
+        double rate = seconds > 0 ? (done - startIndex) / seconds : 0;
+        String eta = rate > 0 ? formatTime((long) ((total - done) / rate)) : "?";
+        return String.format("%.1f%% done, %d chunks generated, %.1f chunks/s, ETA %s, buildingInfo hits %s, characteristics hits %s, palette cache %s",
+                total == 0 ? 100.0 : done * 100.0 / total, generated, seconds > 0 ? generated / seconds : 0, eta,
+                hitRate(getGenerator().getContext().getBuildingInfoCache()), hitRate(getGenerator().getContext().getCharacteristicsCache()),
+                PaletteCache.getStats());
+    }
+
+    private static String hitRate(ChunkMap<?> map) {
+        long hits = map.getHits();
+        long total = hits + map.getMisses();
+        return total == 0 ? "-" : String.format("%.1f%%", hits * 100.0 / total);
+    }
+
+    private static String formatTime(long seconds) {
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    private void report(String message) {
+        LostCities.logger.info("Pregen dimension " + dimension + ": " + message);
+        try {
+            ChatTools.addChatMessage(sender, new TextComponentString(message));
+        } catch (RuntimeException e) {
+            // Sender is gone
+        }
+    }
+
+    /**
+     * Walks over all chunks of the square area in the requested order
+     */
+    private static class ChunkIterator {
+        private final int centerX;
+        private final int centerZ;
+        private final int radius;
+        private final Order order;
+        private final long total;       // Number of positions we walk over (not all of them are inside for REGION)
+
+        private long index = 0;
+        private int x;
+        private int z;
+
+        // Spiral state (relative to the center)
+        private int dx = 0;
+        private int dz = -1;
+
+        // Region state
+        private final int minRegionX;
+        private final int minRegionZ;
+        private final int regionsX;
+
+        private ChunkIterator(int centerX, int centerZ, int radius, Order order) {
+            this.centerX = centerX;
+            this.centerZ = centerZ;
+            this.radius = radius;
+            this.order = order;
+            minRegionX = (centerX - radius) >> 5;
+            minRegionZ = (centerZ - radius) >> 5;
+            regionsX = ((centerX + radius) >> 5) - minRegionX + 1;
+            int regionsZ = ((centerZ + radius) >> 5) - minRegionZ + 1;
+            if (order == Order.SPIRAL) {
+                total = (2L * radius + 1) * (2L * radius + 1);
+            } else {
+                total = (long) regionsX * regionsZ * 1024;
+            }
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        // Number of positions done so far
+        public long getIndex() {
+            return index;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getZ() {
+            return z;
+        }
+
+        // Skip to the given index (as returned by getIndex())
+        public void skip(long count) {
+            if (order == Order.SPIRAL) {
+                while (index < count && index < total) {
+                    step();
+                }
+            } else {
+                index = Math.min(count, total);
+            }
+        }
+
+        public boolean hasNext() {
+            if (order == Order.SPIRAL) {
+                return index < total;
+            }
+            // Skip positions outside the area so that hasNext() is exact
+            while (index < total && !isInside(regionX(index), regionZ(index))) {
+                index++;
+            }
+            return index < total;
+        }
+
+        public void next() {
+            hasNext();
+            step();
+        }
+
+        private void step() {
+            if (order == Order.SPIRAL) {
+                if (index > 0) {
+                    int rx = x - centerX;
+                    int rz = z - centerZ;
+                    if (rx == rz || (rx < 0 && rx == -rz) || (rx > 0 && rx == 1 - rz)) {
+                        int t = dx;
+                        dx = -dz;
+                        dz = t;
+                    }
+                    x += dx;
+                    z += dz;
+                } else {
+                    x = centerX;
+                    z = centerZ;
+                }
+            } else {
+                x = regionX(index);
+                z = regionZ(index);
+            }
+            index++;
+        }
+
+        private int regionX(long i) {
+            int region = (int) (i >> 10);
+            return ((minRegionX + region % regionsX) << 5) + (int) (i & 31);
+        }
+
+        private int regionZ(long i) {
+            int region = (int) (i >> 10);
+            return ((minRegionZ + region / regionsX) << 5) + (int) ((i >> 5) & 31);
+        }
+
+        private boolean isInside(int chunkX, int chunkZ) {
+            return Math.abs(chunkX - centerX) <= radius && Math.abs(chunkZ - centerZ) <= radius;
+        }
+    }
+}
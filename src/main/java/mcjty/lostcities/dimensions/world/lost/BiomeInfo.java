@@ -1,35 +1,72 @@
 package mcjty.lostcities.dimensions.world.lost;
 
 import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
-import mcjty.lostcities.varia.ChunkCoord;
+import mcjty.lostcities.varia.ChunkMap;
 import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeProvider;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * The biomes around a chunk: a window of WINDOW x WINDOW samples of the biome layers
+ * (one sample per 4x4 blocks). Biomes are sampled for a tile of TILE_SIZE x TILE_SIZE
+ * chunks at once and kept as biome ids. A BiomeInfo is only a view on its tile.
+ */
 public class BiomeInfo {
 
-    private static Map<ChunkCoord, BiomeInfo> biomeInfoMap = new HashMap<>();
+    public static final int WINDOW = 10;
+
+    private static final int TILE_SHIFT = 5;
+    private static final int TILE_SIZE = 1 << TILE_SHIFT;
+    // Samples per row of a tile. Big enough for the window of every chunk in the tile
+    private static final int TILE_WIDTH = TILE_SIZE * 4 + WINDOW - 4;
 
-    private Biome[] biomesForBiomeCheck = null;
+    // Estimated memory used by a tile in the cache
+    public static final int TILE_MEMORY = TILE_WIDTH * TILE_WIDTH + 32;
 
+    private final byte[] tile;
+    private final int offset;
+
+    private BiomeInfo(byte[] tile, int offset) {
+        this.tile = tile;
+        this.offset = offset;
+    }
 
-    public static void cleanCache() {
-        biomeInfoMap.clear();
+    public static BiomeInfo getBiomeInfo(LostCityChunkGenerator provider, int chunkX, int chunkZ) {
+        byte[] tile = getTile(provider, chunkX >> TILE_SHIFT, chunkZ >> TILE_SHIFT);
+        return new BiomeInfo(tile, (chunkX & (TILE_SIZE - 1)) * 4 + (chunkZ & (TILE_SIZE - 1)) * 4 * TILE_WIDTH);
     }
 
-    public static BiomeInfo getBiomeInfo(LostCityChunkGenerator provider, ChunkCoord coord) {
-        if (!biomeInfoMap.containsKey(coord)) {
-            BiomeInfo info = new BiomeInfo();
-            int chunkX = coord.getChunkX();
-            int chunkZ = coord.getChunkZ();
-            info.biomesForBiomeCheck = provider.worldObj.getBiomeProvider().getBiomesForGeneration(info.biomesForBiomeCheck, (chunkX - 1) * 4 - 2, chunkZ * 4 - 2, 10, 10);
-            biomeInfoMap.put(coord, info);
+    private static byte[] getTile(LostCityChunkGenerator provider, int tileX, int tileZ) {
+        ChunkMap<byte[]> tiles = provider.getContext().biomeTileMap;
+        byte[] cached = tiles.get(tileX, tileZ);
+        if (cached != null) {
+            return cached;
         }
-        return biomeInfoMap.get(coord);
+        // Same origin as the window of the first chunk of the tile
+        int x = ((tileX << TILE_SHIFT) - 1) * 4 - 2;
+        int z = (tileZ << TILE_SHIFT) * 4 - 2;
+        Biome[] biomes;
+        BiomeProvider biomeProvider = provider.worldObj.getBiomeProvider();
+        // The vanilla biome layers are not thread safe
+        synchronized (biomeProvider) {
+            biomes = biomeProvider.getBiomesForGeneration(null, x, z, TILE_WIDTH, TILE_WIDTH);
+        }
+        byte[] tile = new byte[TILE_WIDTH * TILE_WIDTH];
+        for (int i = 0; i < tile.length; i++) {
+            tile[i] = (byte) Biome.getIdForBiome(biomes[i]);
+        }
+        return tiles.putIfAbsent(tileX, tileZ, tile);
+    }
+
+    /**
+     * Get a biome in the window. The index is x + z * WINDOW
+     */
+    public Biome getBiome(int index) {
+        int z = index / WINDOW;
+        int x = index - z * WINDOW;
+        return Biome.getBiome(tile[offset + x + z * TILE_WIDTH] & 255);
     }
 
-    public Biome[] getBiomes() {
-        return biomesForBiomeCheck;
+    public int size() {
+        return WINDOW * WINDOW;
     }
 }
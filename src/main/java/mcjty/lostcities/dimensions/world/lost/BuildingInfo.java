@@ -7,7 +7,8 @@ import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
 import mcjty.lostcities.dimensions.world.lost.cityassets.*;
 import mcjty.lostcities.varia.ChunkCoord;
 import mcjty.lostcities.varia.Counter;
-import mcjty.lostcities.varia.QualityRandom;
+import mcjty.lostcities.varia.ChunkMap;
+import mcjty.lostcities.varia.ChunkRandom;
 import net.minecraft.block.Block;
 import net.minecraft.init.Biomes;
 import net.minecraft.init.Blocks;
@@ -68,7 +69,7 @@ public class BuildingInfo implements ILostChunkInfo {
     private BuildingInfo zmin = null;
     private BuildingInfo zmax = null;
     private DamageArea damageArea = null;
-    private Palette palette = null;
+    private List<String> paletteNames = null;
     private CompiledPalette compiledPalette = null;
     private Boolean isOcean = null;
 
@@ -82,13 +83,6 @@ public class BuildingInfo implements ILostChunkInfo {
     private boolean actualStairsCalculated = false;
     private Direction actualStairDirection;
 
-    // A list of todo's for mob spawners and other things
-    private final List<Pair<BlockPos, ConditionTodo>> mobSpawnerTodo = new ArrayList<>();
-    private final List<Pair<BlockPos, ConditionTodo>> chestTodo = new ArrayList<>();
-    private final List<BlockPos> genericTodo = new ArrayList<>();
-    private final List<Integer> torchTodo = new ArrayList<>();
-    private final List<BlockPos> saplingTodo = new ArrayList<>();
-
     public static class ConditionTodo {
         private final String condition;
         private final String part;
@@ -117,73 +111,80 @@ public class BuildingInfo implements ILostChunkInfo {
         }
     }
 
-    // BuildingInfo cache
-    private static Map<ChunkCoord, BuildingInfo> buildingInfoMap = new HashMap<>();
-    private static Map<ChunkCoord, LostChunkCharacteristics> cityInfoMap = new HashMap<>();
+    // Set when this info is dropped from the cache (see LostCityContext). Neighbours holding on to it will fetch a fresh copy
+    volatile boolean evicted = false;
 
-    public void addSaplingTodo(BlockPos pos) {
-        saplingTodo.add(pos);
+    // Called when this info is dropped from the cache. The links to the neighbours are dropped
+    // too so that a chain of evicted infos can't keep everything that was explored reachable
+    void onEvicted() {
+        evicted = true;
+        xmin = null;
+        xmax = null;
+        zmin = null;
+        zmax = null;
     }
 
-    public List<BlockPos> getSaplingTodo() {
-        return saplingTodo;
-    }
+    // The todo's of a chunk are kept by the context (see ChunkTodo) so they survive
+    // the eviction of the BuildingInfo
 
-    public void clearSaplingTodo() {
-        saplingTodo.clear();
+    public void addSaplingTodo(BlockPos pos) {
+        provider.getContext().getTodo(chunkX, chunkZ).addSapling(pos);
     }
 
-    public void addTorchTodo(int index) {
-        torchTodo.add(index);
+    public List<BlockPos> takeSaplingTodo() {
+        ChunkTodo todo = provider.getContext().findTodo(chunkX, chunkZ);
+        return todo == null ? Collections.emptyList() : todo.takeSaplings();
     }
 
-    public List<Integer> getTorchTodo() {
-        return torchTodo;
+    public void addTorchTodo(int index) {
+        provider.getContext().getTodo(chunkX, chunkZ).addTorch(index);
     }
 
-    public void clearTorchTodo() {
-        torchTodo.clear();
+    public List<Integer> takeTorchTodo() {
+        ChunkTodo todo = provider.getContext().findTodo(chunkX, chunkZ);
+        return todo == null ? Collections.emptyList() : todo.takeTorches();
     }
 
     public void addGenericTodo(BlockPos pos) {
-        genericTodo.add(pos);
+        provider.getContext().getTodo(chunkX, chunkZ).addGeneric(pos);
     }
 
-    public List<BlockPos> getGenericTodo() {
-        return genericTodo;
-    }
-
-    public void clearGenericTodo() {
-        genericTodo.clear();
+    public List<BlockPos> takeGenericTodo() {
+        ChunkTodo todo = provider.getContext().findTodo(chunkX, chunkZ);
+        return todo == null ? Collections.emptyList() : todo.takeGeneric();
     }
 
     public void addSpawnerTodo(BlockPos pos, ConditionTodo mobId) {
-        mobSpawnerTodo.add(Pair.of(pos, mobId));
+        provider.getContext().getTodo(chunkX, chunkZ).addSpawner(pos, mobId);
     }
 
     public void addChestTodo(BlockPos pos, @Nullable ConditionTodo lootTable) {
-        chestTodo.add(Pair.of(pos, lootTable));
+        provider.getContext().getTodo(chunkX, chunkZ).addChest(pos, lootTable);
     }
 
-    public List<Pair<BlockPos, ConditionTodo>> getMobSpawnerTodo() {
-        return mobSpawnerTodo;
+    public List<Pair<BlockPos, ConditionTodo>> takeMobSpawnerTodo() {
+        ChunkTodo todo = provider.getContext().findTodo(chunkX, chunkZ);
+        return todo == null ? Collections.emptyList() : todo.takeSpawners();
     }
 
-    public List<Pair<BlockPos, ConditionTodo>> getChestTodo() {
-        return chestTodo;
+    public List<Pair<BlockPos, ConditionTodo>> takeChestTodo() {
+        ChunkTodo todo = provider.getContext().findTodo(chunkX, chunkZ);
+        return todo == null ? Collections.emptyList() : todo.takeChests();
     }
 
-    public void clearMobSpawnerTodo() {
-        mobSpawnerTodo.clear();
+    public int getMobSpawnerTodoCount() {
+        ChunkTodo todo = provider.getContext().findTodo(chunkX, chunkZ);
+        return todo == null ? 0 : todo.getSpawnerCount();
     }
 
-    public void clearChestTodo() {
-        chestTodo.clear();
+    public int getChestTodoCount() {
+        ChunkTodo todo = provider.getContext().findTodo(chunkX, chunkZ);
+        return todo == null ? 0 : todo.getChestCount();
     }
 
     public CompiledPalette getCompiledPalette() {
         if (compiledPalette == null) {
-            compiledPalette = new CompiledPalette(palette);
+            compiledPalette = PaletteCache.getCompiledPalette(paletteNames);
         }
         return compiledPalette;
     }
@@ -215,7 +216,7 @@ public class BuildingInfo implements ILostChunkInfo {
         return AssetRegistries.STYLES.get(provider.worldStyle.getOutsideStyle());
     }
 
-    private void createPalette(Random rand) {
+    private void createPalette(ChunkRandom rand) {
         Style style;
         if (!isCity) {
             style = getOutsideStyle();
@@ -226,7 +227,7 @@ public class BuildingInfo implements ILostChunkInfo {
                 throw new RuntimeException("Cannot find style '" + name + "'!");
             }
         }
-        palette = style.getRandomPalette(provider, rand);
+        paletteNames = style.getRandomPaletteNames(rand);
     }
 
     // x between 0 and 15, z between 0 and 15
@@ -245,31 +246,43 @@ public class BuildingInfo implements ILostChunkInfo {
     }
 
     public BuildingInfo getXmin() {
-        if (xmin == null) {
-            xmin = getBuildingInfo(chunkX - 1, chunkZ, provider);
+        // Read the field once. It can be cleared by onEvicted() on another thread
+        BuildingInfo info = xmin;
+        if (info == null || info.evicted) {
+            info = getBuildingInfo(chunkX - 1, chunkZ, provider);
+            xmin = info;
         }
-        return xmin;
+        return info;
     }
 
     public BuildingInfo getXmax() {
-        if (xmax == null) {
-            xmax = getBuildingInfo(chunkX + 1, chunkZ, provider);
+        // Read the field once. It can be cleared by onEvicted() on another thread
+        BuildingInfo info = xmax;
+        if (info == null || info.evicted) {
+            info = getBuildingInfo(chunkX + 1, chunkZ, provider);
+            xmax = info;
         }
-        return xmax;
+        return info;
     }
 
     public BuildingInfo getZmin() {
-        if (zmin == null) {
-            zmin = getBuildingInfo(chunkX, chunkZ - 1, provider);
+        // Read the field once. It can be cleared by onEvicted() on another thread
+        BuildingInfo info = zmin;
+        if (info == null || info.evicted) {
+            info = getBuildingInfo(chunkX, chunkZ - 1, provider);
+            zmin = info;
         }
-        return zmin;
+        return info;
     }
 
     public BuildingInfo getZmax() {
-        if (zmax == null) {
-            zmax = getBuildingInfo(chunkX, chunkZ + 1, provider);
+        // Read the field once. It can be cleared by onEvicted() on another thread
+        BuildingInfo info = zmax;
+        if (info == null || info.evicted) {
+            info = getBuildingInfo(chunkX, chunkZ + 1, provider);
+            zmax = info;
         }
-        return zmax;
+        return info;
     }
 
     public int getMaxHeight() {
@@ -321,9 +334,10 @@ public class BuildingInfo implements ILostChunkInfo {
     }
 
     public static LostChunkCharacteristics getChunkCharacteristics(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
-        ChunkCoord key = new ChunkCoord(provider.dimensionId, chunkX, chunkZ);
-        if (cityInfoMap.containsKey(key)) {
-            return cityInfoMap.get(key);
+        ChunkMap<LostChunkCharacteristics> cityInfoMap = provider.getContext().characteristicsMap;
+        LostChunkCharacteristics cached = cityInfoMap.get(chunkX, chunkZ);
+        if (cached != null) {
+            return cached;
         } else {
             LostChunkCharacteristics lostChunkCharacteristics = new LostChunkCharacteristics();
 
@@ -335,7 +349,7 @@ public class BuildingInfo implements ILostChunkInfo {
             } else {
                 lostChunkCharacteristics.cityLevel = getCityLevel(chunkX, chunkZ, provider);
             }
-            Random rand = getBuildingRandom(chunkX, chunkZ, provider.seed);
+            ChunkRandom rand = getBuildingRandom(chunkX, chunkZ, provider);
             lostChunkCharacteristics.couldHaveBuilding = lostChunkCharacteristics.isCity && checkBuildingPossibility(chunkX, chunkZ, provider, lostChunkCharacteristics.section, lostChunkCharacteristics.cityLevel, rand);
 
             ChunkCoord coord = new ChunkCoord(provider.dimensionId, chunkX, chunkZ);
@@ -404,8 +418,8 @@ public class BuildingInfo implements ILostChunkInfo {
                     chunkX, chunkZ, lostChunkCharacteristics);
             MinecraftForge.EVENT_BUS.post(event);
 
-            cityInfoMap.put(key, lostChunkCharacteristics);
-            return lostChunkCharacteristics;
+            // If another thread was faster we use that result instead. Both are equivalent
+            return cityInfoMap.putIfAbsent(chunkX, chunkZ, lostChunkCharacteristics);
         }
     }
 
@@ -421,7 +435,7 @@ public class BuildingInfo implements ILostChunkInfo {
         return getChunkCharacteristics(chunkX, chunkZ, provider).isCity;
     }
 
-    private static boolean checkBuildingPossibility(int chunkX, int chunkZ, LostCityChunkGenerator provider, int section, int cityLevel, Random rand) {
+    private static boolean checkBuildingPossibility(int chunkX, int chunkZ, LostCityChunkGenerator provider, int section, int cityLevel, ChunkRandom rand) {
         boolean b;
         float bc = rand.nextFloat();
 
@@ -520,7 +534,7 @@ public class BuildingInfo implements ILostChunkInfo {
             return false;   // There is a street here so no building
         }
         if (isMultiBuildingCandidate(chunkX, chunkZ, provider)) {
-            Random rand = getBuildingRandom(chunkX, chunkZ, provider.seed);
+            ChunkRandom rand = getBuildingRandom(chunkX, chunkZ, provider);
             return rand.nextFloat() < provider.profile.BUILDING2X2_CHANCE;
         } else {
             return false;
@@ -594,19 +608,15 @@ public class BuildingInfo implements ILostChunkInfo {
         }
     }
 
-    public static void cleanCache() {
-        buildingInfoMap.clear();
-        cityInfoMap.clear();
-    }
-
     public static BuildingInfo getBuildingInfo(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
-        ChunkCoord key = new ChunkCoord(provider.dimensionId, chunkX, chunkZ);
-        if (buildingInfoMap.containsKey(key)) {
-            return buildingInfoMap.get(key);
+        ChunkMap<BuildingInfo> buildingInfoMap = provider.getContext().buildingInfoMap;
+        BuildingInfo cached = buildingInfoMap.get(chunkX, chunkZ);
+        if (cached != null) {
+            return cached;
         }
         BuildingInfo info = new BuildingInfo(chunkX, chunkZ, provider);
-        buildingInfoMap.put(key, info);
-        return info;
+        // Make sure there is only one BuildingInfo instance per chunk as the stairs and bridges are calculated lazily
+        return buildingInfoMap.putIfAbsent(chunkX, chunkZ, info);
     }
 
     private BuildingInfo(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
@@ -623,7 +633,7 @@ public class BuildingInfo implements ILostChunkInfo {
         buildingType = characteristics.buildingType;
         multiBuilding = characteristics.multiBuilding;
 
-        Random rand = getBuildingRandom(chunkX, chunkZ, provider.seed);
+        ChunkRandom rand = getBuildingRandom(chunkX, chunkZ, provider);
         rand.nextFloat();       // Compatibility?
 
         boolean b = characteristics.couldHaveBuilding;
@@ -654,7 +664,7 @@ public class BuildingInfo implements ILostChunkInfo {
             bridgeType = topleft.bridgeType;
             stairType = topleft.stairType;
             stairPriority = topleft.stairPriority;
-            palette = topleft.palette;
+            paletteNames = topleft.paletteNames;
             compiledPalette = topleft.getCompiledPalette();
             noLoot = topleft.noLoot;
             ruinHeight = topleft.ruinHeight;
@@ -821,12 +831,12 @@ public class BuildingInfo implements ILostChunkInfo {
             return getLevelBasedOnHeight(height, provider);
         } else {
             // @todo: average out nearby biomes?
-            Biome[] biomes = BiomeInfo.getBiomeInfo(provider, new ChunkCoord(provider.dimensionId, chunkX, chunkZ)).getBiomes();
+            BiomeInfo biomes = BiomeInfo.getBiomeInfo(provider, chunkX, chunkZ);
             float h = 0.0f;
-            for (Biome biome : biomes) {
-                h += biome.getBaseHeight();
+            for (int i = 0; i < biomes.size(); i++) {
+                h += biomes.getBiome(i).getBaseHeight();
             }
-            h /= biomes.length;
+            h /= biomes.size();
 
             // deep ocean = -1.8
             // ocean = -1
@@ -873,7 +883,7 @@ public class BuildingInfo implements ILostChunkInfo {
         return cityLevel;
     }
 
-    private Block getRandomDoor(Random rand) {
+    private Block getRandomDoor(ChunkRandom rand) {
         Block doorBlock;
         switch (rand.nextInt(7)) {
             case 0:
@@ -955,7 +965,19 @@ public class BuildingInfo implements ILostChunkInfo {
 
     // This returns the actual stair direction. It keeps track if there are stair chunks around
     // it those have higher stair priority
+    // Stairs and bridges depend on the state of neighbouring infos. The lock of the
+    // dimension guards that state so that it is calculated consistently from multiple threads
+    private Object getNeighbourLock() {
+        return provider.getContext().neighbourLock;
+    }
+
     public Direction getActualStairDirection() {
+        synchronized (getNeighbourLock()) {
+            return calculateActualStairDirection();
+        }
+    }
+
+    private Direction calculateActualStairDirection() {
         if (!actualStairsCalculated) {
             actualStairsCalculated = true;
             actualStairDirection = getStairDirection();
@@ -989,6 +1011,12 @@ public class BuildingInfo implements ILostChunkInfo {
 
     // To prevent adjacent bridges of the same direction we give the bridges at even chunk Z coordinates higher priority
     public BuildingPart hasXBridge(LostCityChunkGenerator provider) {
+        synchronized (getNeighbourLock()) {
+            return calculateXBridge(provider);
+        }
+    }
+
+    private BuildingPart calculateXBridge(LostCityChunkGenerator provider) {
         if (xBridgeTypeCalculated) {
             return xBridgeType;
         }
@@ -1045,6 +1073,12 @@ public class BuildingInfo implements ILostChunkInfo {
 
     // To prevent adjacent bridges of the same direction we give the bridges at even chunk X coordinates higher priority
     public BuildingPart hasZBridge(LostCityChunkGenerator provider) {
+        synchronized (getNeighbourLock()) {
+            return calculateZBridge(provider);
+        }
+    }
+
+    private BuildingPart calculateZBridge(LostCityChunkGenerator provider) {
         if (zBridgeTypeCalculated) {
             return zBridgeType;
         }
@@ -1115,24 +1149,25 @@ public class BuildingInfo implements ILostChunkInfo {
         if (isOcean != null) {
             return isOcean;
         }
-        Biome[] biomes = BiomeInfo.getBiomeInfo(provider, new ChunkCoord(provider.dimensionId, chunkX, chunkZ)).getBiomes();
+        BiomeInfo biomes = BiomeInfo.getBiomeInfo(provider, chunkX, chunkZ);
         isOcean = isOcean(biomes);
         return isOcean;
     }
 
-    private static boolean isOcean(Biome[] biomes) {
+    private static boolean isOcean(BiomeInfo biomes) {
         int cnt = 0;
-        for (Biome biome : biomes) {
+        for (int i = 0; i < biomes.size(); i++) {
+            Biome biome = biomes.getBiome(i);
             if (biome == Biomes.OCEAN || biome == Biomes.DEEP_OCEAN || biome == Biomes.FROZEN_OCEAN) {
                 cnt++;
             }
         }
-        return (cnt * 100 / biomes.length) > 50;
+        return (cnt * 100 / biomes.size()) > 50;
     }
 
 
     private boolean isSuitableForBridge(LostCityChunkGenerator provider, BuildingInfo i) {
-        return i.cityLevel < cityLevel || LostCitiesTerrainGenerator.isWaterBiome(provider, i.coord);
+        return i.cityLevel < cityLevel || LostCitiesTerrainGenerator.isWaterBiome(provider, i.chunkX, i.chunkZ);
     }
 
 
@@ -1224,8 +1259,8 @@ public class BuildingInfo implements ILostChunkInfo {
         return false;
     }
 
-    public static Random getBuildingRandom(int chunkX, int chunkZ, long seed) {
-        Random rand = new QualityRandom(seed + chunkZ * 341873128712L + chunkX * 132897987541L);
+    public static ChunkRandom getBuildingRandom(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
+        ChunkRandom rand = ChunkRandom.createQuality(provider.seed + chunkZ * 341873128712L + chunkX * 132897987541L, provider.profile.FAST_RANDOM);
         rand.nextFloat();
         rand.nextFloat();
         return rand;
@@ -0,0 +1,81 @@
+package mcjty.lostcities.dimensions.world.lost;
+
+import net.minecraft.util.math.BlockPos;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The todo's (mob spawners, chests, torches, ...) of a single chunk. These can be filled
+ * by neighbouring chunks that are generated on another thread so they are kept apart from
+ * the BuildingInfo cache (see LostCityContext) which is free to evict and recompute infos.
+ * The entry of a chunk is dropped when it is populated.
+ */
+class ChunkTodo {
+
+    private final List<Pair<BlockPos, BuildingInfo.ConditionTodo>> mobSpawnerTodo = new ArrayList<>();
+    private final List<Pair<BlockPos, BuildingInfo.ConditionTodo>> chestTodo = new ArrayList<>();
+    private final List<BlockPos> genericTodo = new ArrayList<>();
+    private final List<Integer> torchTodo = new ArrayList<>();
+    private final List<BlockPos> saplingTodo = new ArrayList<>();
+
+    synchronized void addSapling(BlockPos pos) {
+        saplingTodo.add(pos);
+    }
+
+    synchronized List<BlockPos> takeSaplings() {
+        return take(saplingTodo);
+    }
+
+    synchronized void addTorch(int index) {
+        torchTodo.add(index);
+    }
+
+    synchronized List<Integer> takeTorches() {
+        return take(torchTodo);
+    }
+
+    synchronized void addGeneric(BlockPos pos) {
+        genericTodo.add(pos);
+    }
+
+    synchronized List<BlockPos> takeGeneric() {
+        return take(genericTodo);
+    }
+
+    synchronized void addSpawner(BlockPos pos, BuildingInfo.ConditionTodo mobId) {
+        mobSpawnerTodo.add(Pair.of(pos, mobId));
+    }
+
+    synchronized List<Pair<BlockPos, BuildingInfo.ConditionTodo>> takeSpawners() {
+        return take(mobSpawnerTodo);
+    }
+
+    synchronized void addChest(BlockPos pos, BuildingInfo.ConditionTodo lootTable) {
+        chestTodo.add(Pair.of(pos, lootTable));
+    }
+
+    synchronized List<Pair<BlockPos, BuildingInfo.ConditionTodo>> takeChests() {
+        return take(chestTodo);
+    }
+
+    synchronized int getSpawnerCount() {
+        return mobSpawnerTodo.size();
+    }
+
+    synchronized int getChestCount() {
+        return chestTodo.size();
+    }
+
+    // Return a copy of the todo's and clear them. Must be called while holding the lock
+    private static <T> List<T> take(List<T> todo) {
+        if (todo.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<T> copy = new ArrayList<>(todo);
+        todo.clear();
+        return copy;
+    }
+}
@@ -4,7 +4,8 @@ import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
 import mcjty.lostcities.dimensions.world.lost.cityassets.AssetRegistries;
 import mcjty.lostcities.dimensions.world.lost.cityassets.CityStyle;
 import mcjty.lostcities.dimensions.world.lost.cityassets.PredefinedCity;
-import mcjty.lostcities.varia.ChunkCoord;
+import mcjty.lostcities.varia.ChunkMap;
+import mcjty.lostcities.varia.ChunkRandom;
 import mcjty.lostcities.varia.Tools;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.world.biome.Biome;
@@ -17,59 +18,28 @@ import java.util.*;
  */
 public class City {
 
-    private static Map<ChunkCoord, PredefinedCity> predefinedCityMap = null;
-    private static Map<ChunkCoord, PredefinedCity.PredefinedBuilding> predefinedBuildingMap = null;
-    private static Map<ChunkCoord, PredefinedCity.PredefinedStreet> predefinedStreetMap = null;
-
-    public static void cleanCache() {
-        predefinedCityMap = null;
-        predefinedBuildingMap = null;
-        predefinedStreetMap = null;
-    }
-
     private static PredefinedCity getPredefinedCity(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
-        if (predefinedCityMap == null) {
-            predefinedCityMap = new HashMap<>();
-            for (PredefinedCity city : AssetRegistries.PREDEFINED_CITIES.getIterable()) {
-                predefinedCityMap.put(new ChunkCoord(city.getDimension(), city.getChunkX(), city.getChunkZ()), city);
-            }
-        }
-        if (predefinedCityMap.isEmpty()) {
+        Map<Long, PredefinedCity> map = provider.getContext().getPredefinedMaps().cities;
+        if (map.isEmpty()) {
             return null;
         }
-        return predefinedCityMap.get(new ChunkCoord(provider.dimensionId, chunkX, chunkZ));
+        return map.get(ChunkMap.toLong(chunkX, chunkZ));
     }
 
     public static PredefinedCity.PredefinedBuilding getPredefinedBuilding(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
-        if (predefinedBuildingMap == null) {
-            predefinedBuildingMap = new HashMap<>();
-            for (PredefinedCity city : AssetRegistries.PREDEFINED_CITIES.getIterable()) {
-                for (PredefinedCity.PredefinedBuilding building : city.getPredefinedBuildings()) {
-                    predefinedBuildingMap.put(new ChunkCoord(city.getDimension(),
-                            city.getChunkX() + building.getRelChunkX(), city.getChunkZ() + building.getRelChunkZ()), building);
-                }
-            }
-        }
-        if (predefinedBuildingMap.isEmpty()) {
+        Map<Long, PredefinedCity.PredefinedBuilding> map = provider.getContext().getPredefinedMaps().buildings;
+        if (map.isEmpty()) {
             return null;
         }
-        return predefinedBuildingMap.get(new ChunkCoord(provider.dimensionId, chunkX, chunkZ));
+        return map.get(ChunkMap.toLong(chunkX, chunkZ));
     }
 
     public static PredefinedCity.PredefinedStreet getPredefinedStreet(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
-        if (predefinedStreetMap == null) {
-            predefinedStreetMap = new HashMap<>();
-            for (PredefinedCity city : AssetRegistries.PREDEFINED_CITIES.getIterable()) {
-                for (PredefinedCity.PredefinedStreet street : city.getPredefinedStreets()) {
-                    predefinedStreetMap.put(new ChunkCoord(city.getDimension(),
-                            city.getChunkX() + street.getRelChunkX(), city.getChunkZ() + street.getRelChunkZ()), street);
-                }
-            }
-        }
-        if (predefinedStreetMap.isEmpty()) {
+        Map<Long, PredefinedCity.PredefinedStreet> map = provider.getContext().getPredefinedMaps().streets;
+        if (map.isEmpty()) {
             return null;
         }
-        return predefinedStreetMap.get(new ChunkCoord(provider.dimensionId, chunkX, chunkZ));
+        return map.get(ChunkMap.toLong(chunkX, chunkZ));
     }
 
     public static boolean isCityCenter(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
@@ -77,7 +47,7 @@ public class City {
         if (city != null) {
             return true;
         }
-        Random rand = new Random(provider.seed + chunkZ * 797003437L + chunkX * 295075153L);
+        ChunkRandom rand = ChunkRandom.create(provider.seed + chunkZ * 797003437L + chunkX * 295075153L, provider.profile.FAST_RANDOM);
         rand.nextFloat();
         rand.nextFloat();
         return rand.nextFloat() < provider.profile.CITY_CHANCE;
@@ -88,7 +58,7 @@ public class City {
         if (city != null) {
             return city.getRadius();
         }
-        Random rand = new Random(provider.seed + chunkZ * 100001653L + chunkX * 295075153L);
+        ChunkRandom rand = ChunkRandom.create(provider.seed + chunkZ * 100001653L + chunkX * 295075153L, provider.profile.FAST_RANDOM);
         rand.nextFloat();
         rand.nextFloat();
         return provider.profile.CITY_MINRADIUS + rand.nextInt(provider.profile.CITY_MAXRADIUS - provider.profile.CITY_MINRADIUS);
@@ -103,7 +73,7 @@ public class City {
             }
             // Otherwise we chose a random city style
         }
-        Random rand = new Random(provider.seed + chunkZ * 899809363L + chunkX * 256203221L);
+        ChunkRandom rand = ChunkRandom.create(provider.seed + chunkZ * 899809363L + chunkX * 256203221L, provider.profile.FAST_RANDOM);
         rand.nextFloat();
         rand.nextFloat();
         return provider.worldStyle.getRandomCityStyle(provider, chunkX, chunkZ, rand);
@@ -111,25 +81,21 @@ public class City {
 
     // Calculate the citystyle based on all surrounding cities
     public static CityStyle getCityStyle(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
-        Random rand = new Random(provider.seed + chunkZ * 593441843L + chunkX * 217645177L);
+        ChunkRandom rand = ChunkRandom.create(provider.seed + chunkZ * 593441843L + chunkX * 217645177L, provider.profile.FAST_RANDOM);
         rand.nextFloat();
         rand.nextFloat();
 
         int offset = (provider.profile.CITY_MAXRADIUS+15) / 16;
         List<Pair<Float, String>> styles = new ArrayList<>();
-        for (int cx = chunkX - offset; cx <= chunkX + offset; cx++) {
-            for (int cz = chunkZ - offset; cz <= chunkZ + offset; cz++) {
-                if (isCityCenter(cx, cz, provider)) {
-                    float radius = getCityRadius(cx, cz, provider);
-                    float sqdist = (cx * 16 - chunkX * 16) * (cx * 16 - chunkX * 16) + (cz * 16 - chunkZ * 16) * (cz * 16 - chunkZ * 16);
-                    if (sqdist < radius * radius) {
-                        float dist = (float) Math.sqrt(sqdist);
-                        float factor = (radius - dist) / radius;
-                        styles.add(Pair.of(factor, getCityStyleForCityCenter(chunkX, chunkZ, provider)));
-                    }
-                }
+        CityCenterIndex.Grid grid = new CityCenterIndex.Grid(chunkX - offset, chunkZ - offset, chunkX + offset, chunkZ + offset, provider);
+        grid.forEachCenter(chunkX - offset, chunkZ - offset, chunkX + offset, chunkZ + offset, (cx, cz, radius) -> {
+            float sqdist = (cx * 16 - chunkX * 16) * (cx * 16 - chunkX * 16) + (cz * 16 - chunkZ * 16) * (cz * 16 - chunkZ * 16);
+            if (sqdist < radius * radius) {
+                float dist = (float) Math.sqrt(sqdist);
+                float factor = (radius - dist) / radius;
+                styles.add(Pair.of(factor, getCityStyleForCityCenter(chunkX, chunkZ, provider)));
             }
-        }
+        });
         String cityStyleName;
         if (styles.isEmpty()) {
             cityStyleName = provider.worldStyle.getRandomCityStyle(provider, chunkX, chunkZ, rand);
@@ -140,6 +106,30 @@ public class City {
     }
 
     public static float getCityFactor(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
+        int offset = (provider.profile.CITY_MAXRADIUS+15) / 16;
+        CityCenterIndex.Grid grid = new CityCenterIndex.Grid(chunkX - offset, chunkZ - offset, chunkX + offset, chunkZ + offset, provider);
+        return getCityFactor(chunkX, chunkZ, provider, grid);
+    }
+
+    /**
+     * Calculate the city factor for all chunks in a rectangle (inclusive). The result is
+     * indexed with (chunkX - minX) * (maxZ - minZ + 1) + (chunkZ - minZ)
+     */
+    public static float[] getCityFactors(int minX, int minZ, int maxX, int maxZ, LostCityChunkGenerator provider) {
+        int offset = (provider.profile.CITY_MAXRADIUS+15) / 16;
+        CityCenterIndex.Grid grid = new CityCenterIndex.Grid(minX - offset, minZ - offset, maxX + offset, maxZ + offset, provider);
+        int sizeZ = maxZ - minZ + 1;
+        float[] factors = new float[(maxX - minX + 1) * sizeZ];
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                factors[(x - minX) * sizeZ + (z - minZ)] = getCityFactor(x, z, provider, grid);
+            }
+        }
+        return factors;
+    }
+
+    // The grid must cover CITY_MAXRADIUS around this chunk
+    private static float getCityFactor(int chunkX, int chunkZ, LostCityChunkGenerator provider, CityCenterIndex.Grid grid) {
         // If we have a predefined building here we force a high city factor
 
         PredefinedCity.PredefinedBuilding predefinedBuilding = getPredefinedBuilding(chunkX, chunkZ, provider);
@@ -172,34 +162,31 @@ public class City {
             }
         }
 
-        long seed = provider.seed;
-        float factor = 0;
+        // Centers are visited in the same order as before so the sum is exactly the same
+        float[] sum = new float[1];
         int offset = (provider.profile.CITY_MAXRADIUS+15) / 16;
-        for (int cx = chunkX - offset; cx <= chunkX + offset; cx++) {
-            for (int cz = chunkZ - offset; cz <= chunkZ + offset; cz++) {
-                if (isCityCenter(cx, cz, provider)) {
-                    float radius = getCityRadius(cx, cz, provider);
-                    float sqdist = (cx * 16 - chunkX * 16) * (cx * 16 - chunkX * 16) + (cz * 16 - chunkZ * 16) * (cz * 16 - chunkZ * 16);
-                    if (sqdist < radius * radius) {
-                        float dist = (float) Math.sqrt(sqdist);
-                        factor += (radius - dist) / radius;
-                    }
-                }
+        grid.forEachCenter(chunkX - offset, chunkZ - offset, chunkX + offset, chunkZ + offset, (cx, cz, radius) -> {
+            float sqdist = (cx * 16 - chunkX * 16) * (cx * 16 - chunkX * 16) + (cz * 16 - chunkZ * 16) * (cz * 16 - chunkZ * 16);
+            if (sqdist < radius * radius) {
+                float dist = (float) Math.sqrt(sqdist);
+                sum[0] += (radius - dist) / radius;
             }
-        }
+        });
+        float factor = sum[0];
 
         Float foundFactor = null;
         for (int cx = -1 ; cx <= 1 ; cx++) {
             for (int cz = -1 ; cz <= 1 ; cz++) {
-                Biome[] biomes = BiomeInfo.getBiomeInfo(provider, new ChunkCoord(provider.dimensionId, chunkX + cx, chunkZ + cz)).getBiomes();
+                BiomeInfo biomes = BiomeInfo.getBiomeInfo(provider, chunkX + cx, chunkZ + cz);
                 if (isTooHighForBuilding(biomes)) {
                     return 0;
                 }
             }
         }
 
-        Biome[] biomes = BiomeInfo.getBiomeInfo(provider, new ChunkCoord(provider.dimensionId, chunkX, chunkZ)).getBiomes();
-        for (Biome biome : biomes) {
+        BiomeInfo biomes = BiomeInfo.getBiomeInfo(provider, chunkX, chunkZ);
+        for (int i = 0; i < biomes.size(); i++) {
+            Biome biome = biomes.getBiome(i);
             Map<String, Float> map = provider.profile.getBiomeFactorMap();
             ResourceLocation object = Biome.REGISTRY.getNameForObject(biome);
             Float f = map.get(object.toString());
@@ -222,9 +209,9 @@ public class City {
         return factor;
     }
 
-    public static boolean isTooHighForBuilding(Biome[] biomes) {
-        return biomes[55].getBaseHeight() > 4 || biomes[54].getBaseHeight() > 4 || biomes[56].getBaseHeight() > 4
-                || biomes[5].getBaseHeight() > 4 || biomes[95].getBaseHeight() > 4;
+    public static boolean isTooHighForBuilding(BiomeInfo biomes) {
+        return biomes.getBiome(55).getBaseHeight() > 4 || biomes.getBiome(54).getBaseHeight() > 4 || biomes.getBiome(56).getBaseHeight() > 4
+                || biomes.getBiome(5).getBaseHeight() > 4 || biomes.getBiome(95).getBaseHeight() > 4;
     }
 
 }
@@ -0,0 +1,103 @@
+package mcjty.lostcities.dimensions.world.lost;
+
+import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
+import mcjty.lostcities.varia.ChunkMap;
+
+/**
+ * All city centers (and their radius) in a region of TILE_SIZE x TILE_SIZE chunks.
+ * Regions are computed once and cached (in the LostCityContext) so that the city
+ * factor of a chunk doesn't need two new randoms for every chunk in range.
+ */
+public class CityCenterIndex {
+
+    public static final int TILE_SHIFT = 3;
+    public static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+    // Centers are sorted by x and then z. The centers with local x are at
+    // indices xStart[x] (inclusive) to xStart[x+1] (exclusive)
+    private final int[] xStart = new int[TILE_SIZE + 1];
+    private final int[] zs;
+    private final float[] radii;
+
+    public interface CenterVisitor {
+        void visit(int chunkX, int chunkZ, float radius);
+    }
+
+    public static CityCenterIndex getRegion(int regionX, int regionZ, LostCityChunkGenerator provider) {
+        ChunkMap<CityCenterIndex> regionMap = provider.getContext().cityCenterRegionMap;
+        CityCenterIndex cached = regionMap.get(regionX, regionZ);
+        if (cached != null) {
+            return cached;
+        }
+        CityCenterIndex region = new CityCenterIndex(regionX, regionZ, provider);
+        return regionMap.putIfAbsent(regionX, regionZ, region);
+    }
+
+    private CityCenterIndex(int regionX, int regionZ, LostCityChunkGenerator provider) {
+        int x0 = regionX << TILE_SHIFT;
+        int z0 = regionZ << TILE_SHIFT;
+        int[] z = new int[TILE_SIZE * TILE_SIZE];
+        float[] r = new float[TILE_SIZE * TILE_SIZE];
+        int cnt = 0;
+        for (int x = 0; x < TILE_SIZE; x++) {
+            xStart[x] = cnt;
+            for (int cz = z0; cz < z0 + TILE_SIZE; cz++) {
+                if (City.isCityCenter(x0 + x, cz, provider)) {
+                    z[cnt] = cz;
+                    r[cnt] = City.getCityRadius(x0 + x, cz, provider);
+                    cnt++;
+                }
+            }
+        }
+        xStart[TILE_SIZE] = cnt;
+        zs = new int[cnt];
+        radii = new float[cnt];
+        System.arraycopy(z, 0, zs, 0, cnt);
+        System.arraycopy(r, 0, radii, 0, cnt);
+    }
+
+    /**
+     * The regions covering a rectangle of chunks. Fetch this once to visit the centers
+     * around many chunks in that rectangle
+     */
+    public static class Grid {
+        private final int minRegionX;
+        private final int minRegionZ;
+        private final CityCenterIndex[][] regions;
+
+        public Grid(int minX, int minZ, int maxX, int maxZ, LostCityChunkGenerator provider) {
+            minRegionX = minX >> TILE_SHIFT;
+            minRegionZ = minZ >> TILE_SHIFT;
+            int sizeX = (maxX >> TILE_SHIFT) - minRegionX + 1;
+            int sizeZ = (maxZ >> TILE_SHIFT) - minRegionZ + 1;
+            regions = new CityCenterIndex[sizeX][sizeZ];
+            for (int rx = 0; rx < sizeX; rx++) {
+                for (int rz = 0; rz < sizeZ; rz++) {
+                    regions[rx][rz] = getRegion(minRegionX + rx, minRegionZ + rz, provider);
+                }
+            }
+        }
+
+        /**
+         * Visit all centers in a rectangle of chunks (inclusive and inside the grid). The
+         * centers are visited in the same order as a loop over x and then z
+         */
+        public void forEachCenter(int minX, int minZ, int maxX, int maxZ, CenterVisitor visitor) {
+            int minRz = (minZ >> TILE_SHIFT) - minRegionZ;
+            int maxRz = (maxZ >> TILE_SHIFT) - minRegionZ;
+            for (int cx = minX; cx <= maxX; cx++) {
+                CityCenterIndex[] column = regions[(cx >> TILE_SHIFT) - minRegionX];
+                int x = cx & (TILE_SIZE - 1);
+                for (int rz = minRz; rz <= maxRz; rz++) {
+                    CityCenterIndex region = column[rz];
+                    for (int i = region.xStart[x]; i < region.xStart[x + 1]; i++) {
+                        int cz = region.zs[i];
+                        if (cz >= minZ && cz <= maxZ) {
+                            visitor.visit(cx, cz, region.radii[i]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
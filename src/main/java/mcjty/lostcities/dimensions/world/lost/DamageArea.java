@@ -3,6 +3,7 @@ package mcjty.lostcities.dimensions.world.lost;
 import mcjty.lostcities.dimensions.world.LostCitiesTerrainGenerator;
 import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
 import mcjty.lostcities.dimensions.world.lost.cityassets.CompiledPalette;
+import mcjty.lostcities.varia.ChunkRandom;
 import mcjty.lostcities.varia.GeometryTools;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
@@ -27,50 +28,45 @@ public class DamageArea {
         this.chunkZ = chunkZ;
         chunkBox = new AxisAlignedBB(chunkX * 16, 0, chunkZ * 16, chunkX * 16 + 15, 256, chunkZ * 16 + 15);
 
-        Random rand = new Random(seed + chunkZ * 295075153L + chunkX * 899826547L);
+        ChunkRandom rand = ChunkRandom.create(seed + chunkZ * 295075153L + chunkX * 899826547L, provider.profile.FAST_RANDOM);
         rand.nextFloat();
         rand.nextFloat();
 
+        // Only explosions from the chunks in range are considered. They come from the explosion index
+        // in the same order as when all chunks were visited so the random stays the same. The city
+        // status, city level and chance are only looked up for those chunks (as before)
         int offset = (Math.max(provider.profile.EXPLOSION_MAXRADIUS, provider.profile.MINI_EXPLOSION_MAXRADIUS)+15) / 16;
-        for (int cx = chunkX - offset; cx <= chunkX + offset; cx++) {
-            for (int cz = chunkZ - offset; cz <= chunkZ + offset; cz++) {
-                if ((!provider.profile.EXPLOSIONS_IN_CITIES_ONLY) || BuildingInfo.isCity(cx, cz, provider)) {
-                    Explosion explosion = getExplosionAt(cx, cz, provider);
-                    if (explosion != null) {
-                        if (intersectsWith(explosion.getCenter(), explosion.getRadius())) {
-                            Float chance = BuildingInfo.getBuildingInfo(cx, cz, provider).getChunkCharacteristics(cx, cz, provider).cityStyle.getExplosionChance();
-                            if (chance == null || rand.nextFloat() < chance) {
-                                explosions.add(explosion);
-                            }
-                        }
-                    }
-                    explosion = getMiniExplosionAt(cx, cz, provider);
-                    if (explosion != null) {
-                        if (intersectsWith(explosion.getCenter(), explosion.getRadius())) {
-                            Float chance = BuildingInfo.getBuildingInfo(cx, cz, provider).getChunkCharacteristics(cx, cz, provider).cityStyle.getExplosionChance();
-                            if (chance == null || rand.nextFloat() < chance) {
-                                explosions.add(explosion);
-                            }
-                        }
-                    }
+        List<ExplosionIndex.Candidate> candidates = new ArrayList<>();
+        ExplosionIndex.getCandidates(chunkX - offset, chunkZ - offset, chunkX + offset, chunkZ + offset, provider, candidates);
+        for (ExplosionIndex.Candidate candidate : candidates) {
+            int cx = candidate.getChunkX();
+            int cz = candidate.getChunkZ();
+            if (provider.profile.EXPLOSIONS_IN_CITIES_ONLY && !BuildingInfo.isCity(cx, cz, provider)) {
+                continue;
+            }
+            Explosion explosion = candidate.getExplosion(provider);
+            if (intersectsWith(explosion.getCenter(), explosion.getRadius())) {
+                Float chance = BuildingInfo.getBuildingInfo(cx, cz, provider).getChunkCharacteristics(cx, cz, provider).cityStyle.getExplosionChance();
+                if (chance == null || rand.nextFloat() < chance) {
+                    explosions.add(explosion);
                 }
             }
         }
     }
 
-    public Character damageBlock(Character b, LostCityChunkGenerator provider, int y, float damage, CompiledPalette palette) {
+    public char damageBlock(char b, LostCityChunkGenerator provider, Random rand, int y, float damage, CompiledPalette palette) {
         if (b == LostCitiesTerrainGenerator.bedrockChar || b == LostCitiesTerrainGenerator.endportalChar || b == LostCitiesTerrainGenerator.endportalFrameChar) {
             return b;
         }
 
-        if (LostCitiesTerrainGenerator.getGlassChars().contains(b)) {
+        if (LostCitiesTerrainGenerator.isGlassChar(b)) {
             damage *= 2.5f;    // As if this block gets double the damage
         }
-        if (provider.rand.nextFloat() <= damage) {
-            Character damaged = palette.canBeDamagedToIronBars(b);
-            if (damage < BLOCK_DAMAGE_CHANCE && damaged != null) {
-                if (provider.rand.nextFloat() < .7f) {
-                    b = damaged;
+        if (rand.nextFloat() <= damage) {
+            int damaged = palette.getDamaged(b);
+            if (damage < BLOCK_DAMAGE_CHANCE && damaged != CompiledPalette.ABSENT) {
+                if (rand.nextFloat() < .7f) {
+                    b = (char) damaged;
                 } else {
                     b = y < provider.profile.WATERLEVEL ? LostCitiesTerrainGenerator.liquidChar : LostCitiesTerrainGenerator.airChar;
                 }
@@ -86,28 +82,6 @@ public class DamageArea {
         return dmin <= radius * radius;
     }
 
-    private Explosion getExplosionAt(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
-        Random rand = new Random(seed + chunkZ * 295075153L + chunkX * 797003437L);
-        rand.nextFloat();
-        rand.nextFloat();
-        if (rand.nextFloat() < provider.profile.EXPLOSION_CHANCE) {
-            return new Explosion(provider.profile.EXPLOSION_MINRADIUS + rand.nextInt(provider.profile.EXPLOSION_MAXRADIUS - provider.profile.EXPLOSION_MINRADIUS),
-                    new BlockPos(chunkX * 16 + rand.nextInt(16), BuildingInfo.getBuildingInfo(chunkX, chunkZ, provider).cityLevel * 6 + provider.profile.EXPLOSION_MINHEIGHT + rand.nextInt(provider.profile.EXPLOSION_MAXHEIGHT - provider.profile.EXPLOSION_MINHEIGHT), chunkZ * 16 + rand.nextInt(16)));
-        }
-        return null;
-    }
-
-    private Explosion getMiniExplosionAt(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
-        Random rand = new Random(seed + chunkZ * 1400305337L + chunkX * 573259391L);
-        rand.nextFloat();
-        rand.nextFloat();
-        if (rand.nextFloat() < provider.profile.MINI_EXPLOSION_CHANCE) {
-            return new Explosion(provider.profile.MINI_EXPLOSION_MINRADIUS + rand.nextInt(provider.profile.MINI_EXPLOSION_MAXRADIUS - provider.profile.MINI_EXPLOSION_MINRADIUS),
-                    new BlockPos(chunkX * 16 + rand.nextInt(16), BuildingInfo.getBuildingInfo(chunkX, chunkZ, provider).cityLevel * 6 + provider.profile.MINI_EXPLOSION_MINHEIGHT + rand.nextInt(provider.profile.MINI_EXPLOSION_MAXHEIGHT - provider.profile.MINI_EXPLOSION_MINHEIGHT), chunkZ * 16 + rand.nextInt(16)));
-        }
-        return null;
-    }
-
     // Return true if this chunk is affected by explosions
     public boolean hasExplosions() {
         return !explosions.isEmpty();
@@ -0,0 +1,141 @@
+package mcjty.lostcities.dimensions.world.lost;
+
+import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
+import mcjty.lostcities.varia.ChunkMap;
+import mcjty.lostcities.varia.ChunkRandom;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rolled explosions (normal and mini) of a region of TILE_SIZE x TILE_SIZE chunks.
+ * Regions are computed once and cached (in the LostCityContext) so that a DamageArea
+ * only has to look at the explosions of the regions it overlaps instead of seeding two
+ * randoms for every chunk in range. The index only holds what comes from the randoms:
+ * the city status, city level and explosion chance need the BuildingInfo of the chunk
+ * and are only looked up by the DamageArea for explosions in range.
+ */
+public class ExplosionIndex {
+
+    public static final int TILE_SHIFT = 3;
+    public static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+    // Explosions ordered by chunk x, then chunk z and normal before mini explosions
+    private final List<Candidate> candidates = new ArrayList<>();
+
+    public static class Candidate {
+        private final int chunkX;
+        private final int chunkZ;
+        private final int radius;
+        private final int x;        // Position in the chunk
+        private final int height;   // Height above the city level of the chunk
+        private final int z;
+
+        private Candidate(int chunkX, int chunkZ, int radius, int x, int height, int z) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.radius = radius;
+            this.x = x;
+            this.height = height;
+            this.z = z;
+        }
+
+        public int getChunkX() {
+            return chunkX;
+        }
+
+        public int getChunkZ() {
+            return chunkZ;
+        }
+
+        // Make the explosion. This needs the BuildingInfo of the chunk for the city level
+        public Explosion getExplosion(LostCityChunkGenerator provider) {
+            int cityLevel = BuildingInfo.getBuildingInfo(chunkX, chunkZ, provider).cityLevel;
+            return new Explosion(radius, new BlockPos(chunkX * 16 + x, cityLevel * 6 + height, chunkZ * 16 + z));
+        }
+    }
+
+    public static ExplosionIndex getRegion(int regionX, int regionZ, LostCityChunkGenerator provider) {
+        ChunkMap<ExplosionIndex> regionMap = provider.getContext().explosionRegionMap;
+        ExplosionIndex cached = regionMap.get(regionX, regionZ);
+        if (cached != null) {
+            return cached;
+        }
+        ExplosionIndex region = new ExplosionIndex(regionX, regionZ, provider);
+        return regionMap.putIfAbsent(regionX, regionZ, region);
+    }
+
+    /**
+     * Add all explosions that originate in the given range of chunks (inclusive) to the list.
+     * The result is ordered by chunk x, then chunk z (normal explosion before mini explosion)
+     */
+    public static void getCandidates(int minX, int minZ, int maxX, int maxZ, LostCityChunkGenerator provider, List<Candidate> result) {
+        int first = result.size();
+        int minRegionZ = minZ >> TILE_SHIFT;
+        int maxRegionZ = maxZ >> TILE_SHIFT;
+        boolean multipleRegionsZ = minRegionZ != maxRegionZ;
+        for (int rx = minX >> TILE_SHIFT; rx <= maxX >> TILE_SHIFT; rx++) {
+            for (int rz = minRegionZ; rz <= maxRegionZ; rz++) {
+                for (Candidate candidate : getRegion(rx, rz, provider).candidates) {
+                    if (candidate.chunkX >= minX && candidate.chunkX <= maxX && candidate.chunkZ >= minZ && candidate.chunkZ <= maxZ) {
+                        result.add(candidate);
+                    }
+                }
+            }
+        }
+        if (multipleRegionsZ && result.size() - first > 1) {
+            // Regions are visited column by column so chunks with the same x can be out of order.
+            // The sort is stable so normal explosions stay in front of mini explosions
+            result.subList(first, result.size()).sort((c1, c2) -> {
+                if (c1.chunkX != c2.chunkX) {
+                    return Integer.compare(c1.chunkX, c2.chunkX);
+                }
+                return Integer.compare(c1.chunkZ, c2.chunkZ);
+            });
+        }
+    }
+
+    private ExplosionIndex(int regionX, int regionZ, LostCityChunkGenerator provider) {
+        int x0 = regionX << TILE_SHIFT;
+        int z0 = regionZ << TILE_SHIFT;
+        for (int cx = x0; cx < x0 + TILE_SIZE; cx++) {
+            for (int cz = z0; cz < z0 + TILE_SIZE; cz++) {
+                Candidate candidate = getExplosionAt(cx, cz, provider);
+                if (candidate != null) {
+                    candidates.add(candidate);
+                }
+                candidate = getMiniExplosionAt(cx, cz, provider);
+                if (candidate != null) {
+                    candidates.add(candidate);
+                }
+            }
+        }
+    }
+
+    private static Candidate getExplosionAt(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
+        ChunkRandom rand = ChunkRandom.create(provider.seed + chunkZ * 295075153L + chunkX * 797003437L, provider.profile.FAST_RANDOM);
+        rand.nextFloat();
+        rand.nextFloat();
+        if (rand.nextFloat() < provider.profile.EXPLOSION_CHANCE) {
+            int radius = provider.profile.EXPLOSION_MINRADIUS + rand.nextInt(provider.profile.EXPLOSION_MAXRADIUS - provider.profile.EXPLOSION_MINRADIUS);
+            int x = rand.nextInt(16);
+            int height = provider.profile.EXPLOSION_MINHEIGHT + rand.nextInt(provider.profile.EXPLOSION_MAXHEIGHT - provider.profile.EXPLOSION_MINHEIGHT);
+            return new Candidate(chunkX, chunkZ, radius, x, height, rand.nextInt(16));
+        }
+        return null;
+    }
+
+    private static Candidate getMiniExplosionAt(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
+        ChunkRandom rand = ChunkRandom.create(provider.seed + chunkZ * 1400305337L + chunkX * 573259391L, provider.profile.FAST_RANDOM);
+        rand.nextFloat();
+        rand.nextFloat();
+        if (rand.nextFloat() < provider.profile.MINI_EXPLOSION_CHANCE) {
+            int radius = provider.profile.MINI_EXPLOSION_MINRADIUS + rand.nextInt(provider.profile.MINI_EXPLOSION_MAXRADIUS - provider.profile.MINI_EXPLOSION_MINRADIUS);
+            int x = rand.nextInt(16);
+            int height = provider.profile.MINI_EXPLOSION_MINHEIGHT + rand.nextInt(provider.profile.MINI_EXPLOSION_MAXHEIGHT - provider.profile.MINI_EXPLOSION_MINHEIGHT);
+            return new Candidate(chunkX, chunkZ, radius, x, height, rand.nextInt(16));
+        }
+        return null;
+    }
+}
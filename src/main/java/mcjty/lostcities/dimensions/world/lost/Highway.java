@@ -1,38 +1,68 @@
 package mcjty.lostcities.dimensions.world.lost;
 
 import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
-import mcjty.lostcities.varia.ChunkCoord;
-import net.minecraft.world.gen.NoiseGeneratorPerlin;
+import mcjty.lostcities.varia.ChunkMap;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-import java.util.function.Function;
+import java.util.Arrays;
 
 public class Highway {
 
-    private static NoiseGeneratorPerlin perlinX = null;
-    private static NoiseGeneratorPerlin perlinZ = null;
-    private static Map<ChunkCoord, Integer> xHighwayLevelCache = new HashMap<>();
-    private static Map<ChunkCoord, Integer> zHighwayLevelCache = new HashMap<>();
-
-
-    private static void makePerlin(long seed) {
-        if (perlinX == null) {
-            Random random = new Random(seed);
-            perlinX = new NoiseGeneratorPerlin(random, 4);
-        }
-        if (perlinZ == null) {
-            Random random = new Random(seed ^ 879190747L);
-            perlinZ = new NoiseGeneratorPerlin(random, 4);
+    // Along a highway row the chunks are grouped in tiles of TILE_SIZE chunks. For every
+    // tile the highway segments (runs of chunks where the perlin noise allows a highway)
+    // are computed once so that a query is a binary search instead of a walk over the noise
+    private static final int TILE_SHIFT = 6;
+    private static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+    // Used for levels that are not computed yet
+    private static final int UNKNOWN = -2;
+
+    // Tiles are cached in the LostCityContext. They are keyed by tile index (along the highway)
+    // and row (the chunk coordinate across the highway / 8)
+    static class HighwayTile {
+        // Segments in this tile (clipped to the tile), sorted. Both ends are inclusive
+        private final int[] starts;
+        private final int[] ends;
+        // Level of every segment (computed when needed)
+        private final int[] levels;
+
+        private HighwayTile(LostCityChunkGenerator provider, boolean isX, int tile, int other) {
+            int first = tile << TILE_SHIFT;
+            int[] s = new int[TILE_SIZE / 2 + 1];
+            int[] e = new int[TILE_SIZE / 2 + 1];
+            int cnt = 0;
+            boolean inSegment = false;
+            for (int pos = first; pos < first + TILE_SIZE; pos++) {
+                if (hasHighway(provider, isX, pos, other)) {
+                    if (!inSegment) {
+                        s[cnt] = pos;
+                        inSegment = true;
+                    }
+                    e[cnt] = pos;
+                } else if (inSegment) {
+                    cnt++;
+                    inSegment = false;
+                }
+            }
+            if (inSegment) {
+                cnt++;
+            }
+            starts = Arrays.copyOf(s, cnt);
+            ends = Arrays.copyOf(e, cnt);
+            levels = new int[cnt];
+            Arrays.fill(levels, UNKNOWN);
         }
-    }
 
-    public static void cleanCache() {
-        perlinX = null;
-        perlinZ = null;
-        xHighwayLevelCache.clear();
-        zHighwayLevelCache.clear();
+        // Return the index of the segment containing this position or -1
+        private int find(int pos) {
+            int idx = Arrays.binarySearch(starts, pos);
+            if (idx < 0) {
+                idx = -idx - 2;
+                if (idx < 0 || ends[idx] < pos) {
+                    return -1;
+                }
+            }
+            return idx;
+        }
     }
 
     /**
@@ -40,7 +70,7 @@ public class Highway {
      * Returns 0 or 1 if there is a highway (at that city level) going through this chunk.
      */
     public static int getXHighwayLevel(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
-        return getHighwayLevel(provider, Highway.xHighwayLevelCache, cp -> hasXHighway(cp, provider), Orientation.X, new ChunkCoord(provider.dimensionId, chunkX, chunkZ));
+        return getHighwayLevel(provider, provider.getContext().xHighwayTiles, Orientation.X, chunkX, chunkZ);
     }
 
     /**
@@ -48,86 +78,116 @@ public class Highway {
      * Returns 0 or 1 if there is a highway (at that city level) going through this chunk.
      */
     public static int getZHighwayLevel(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
-        return getHighwayLevel(provider, Highway.zHighwayLevelCache, cp -> hasZHighway(cp, provider), Orientation.Z, new ChunkCoord(provider.dimensionId, chunkX, chunkZ));
+        return getHighwayLevel(provider, provider.getContext().zHighwayTiles, Orientation.Z, chunkX, chunkZ);
     }
 
-    private static int getHighwayLevel(LostCityChunkGenerator provider, Map<ChunkCoord, Integer> cache, Function<ChunkCoord, Boolean> hasHighway, Orientation orientation, ChunkCoord cp) {
-        if (cache.containsKey(cp)) {
-            return cache.get(cp);
+    private static HighwayTile getTile(LostCityChunkGenerator provider, ChunkMap<HighwayTile> tiles, boolean isX, int tile, int other) {
+        HighwayTile cached = tiles.get(tile, other >> 3);
+        if (cached != null) {
+            return cached;
         }
+        return tiles.putIfAbsent(tile, other >> 3, new HighwayTile(provider, isX, tile, other));
+    }
+
+    private static int getHighwayLevel(LostCityChunkGenerator provider, ChunkMap<HighwayTile> tiles, Orientation orientation, int chunkX, int chunkZ) {
+        // 'pos' is the coordinate along the highway, 'other' the coordinate across it
+        boolean isX = orientation == Orientation.X;
+        int pos = isX ? chunkX : chunkZ;
+        int other = isX ? chunkZ : chunkX;
 
         // Highways can only occur at chunkZ that is a multiple of 8
-        if ((cp.getCoord(orientation.getOpposite()) & 7) != 0) {
-            cache.put(cp, -1);
+        if ((other & 7) != 0) {
             return -1;
         }
 
+        int tileIndex = pos >> TILE_SHIFT;
+        HighwayTile tile = getTile(provider, tiles, isX, tileIndex, other);
+        int segment = tile.find(pos);
+        if (segment == -1) {
+            return -1;
+        }
+        int level = tile.levels[segment];
+        if (level != UNKNOWN) {
+            return level;
+        }
 
-        makePerlin(provider.seed);
-        if (hasHighway.apply(cp)) {
-            // This is part of a highway. Find the left-most chunk that is still part of this highway
-            ChunkCoord lower = cp.lower(orientation);
-            while (hasHighway.apply(lower)) {
-                lower = lower.lower(orientation);
+        // Segments that touch the border of the tile continue in the neighbouring tiles
+        int lower = tile.starts[segment];
+        int t = tileIndex;
+        while ((lower & (TILE_SIZE - 1)) == 0) {
+            HighwayTile prev = getTile(provider, tiles, isX, --t, other);
+            int last = prev.starts.length - 1;
+            if (last < 0 || prev.ends[last] != lower - 1) {
+                break;
             }
-            lower = lower.higher(orientation);     // This is now where the highway starts
+            lower = prev.starts[last];
+        }
+        int higher = tile.ends[segment];
+        t = tileIndex;
+        while ((higher & (TILE_SIZE - 1)) == TILE_SIZE - 1) {
+            HighwayTile next = getTile(provider, tiles, isX, ++t, other);
+            if (next.starts.length == 0 || next.starts[0] != higher + 1) {
+                break;
+            }
+            higher = next.ends[0];
+        }
+
+        level = getSegmentLevel(provider, isX, lower, higher, other);
+        tile.levels[segment] = level;
+        return level;
+    }
 
-            // Find the right-most chunk that is still part of this highway
-            ChunkCoord higher = cp.higher(orientation);
-            while (hasHighway.apply(higher)) {
-                higher = higher.higher(orientation);
+    private static int getSegmentLevel(LostCityChunkGenerator provider, boolean isX, int lower, int higher, int other) {
+        int lowerX = isX ? lower : other;
+        int lowerZ = isX ? other : lower;
+        int higherX = isX ? higher : other;
+        int higherZ = isX ? other : higher;
+
+        int level = -1;
+        if (higher - lower >= 5) {
+            boolean valid;
+            if (provider.profile.HIGHWAY_REQUIRES_TWO_CITIES) {
+                valid = BuildingInfo.isCityRaw(lowerX, lowerZ, provider) && BuildingInfo.isCityRaw(higherX, higherZ, provider);
+            } else {
+                valid = BuildingInfo.isCityRaw(lowerX, lowerZ, provider) || BuildingInfo.isCityRaw(higherX, higherZ, provider);
             }
-            higher = higher.lower(orientation);     // This is now where the highway ends
-
-            int level = -1;
-            if (higher.getCoord(orientation)-lower.getCoord(orientation) >= 5) {
-                boolean valid;
-                if (provider.profile.HIGHWAY_REQUIRES_TWO_CITIES) {
-                    valid = BuildingInfo.isCityRaw(lower.getChunkX(), lower.getChunkZ(), provider) && BuildingInfo.isCityRaw(higher.getChunkX(), higher.getChunkZ(), provider);
-                } else {
-                    valid = BuildingInfo.isCityRaw(lower.getChunkX(), lower.getChunkZ(), provider) || BuildingInfo.isCityRaw(higher.getChunkX(), higher.getChunkZ(), provider);
-                }
-                if (valid) {
-                    // We have at least one city. Valid highway:
-                    switch (provider.profile.HIGHWAY_LEVEL_FROM_CITIES_MODE) {
-                        case 0:
-                            level = BuildingInfo.getCityLevel(lower.getChunkX(), lower.getChunkZ(), provider);
-                            break;
-                        case 1:
-                            level = Math.min(BuildingInfo.getCityLevel(lower.getChunkX(), lower.getChunkZ(), provider),
-                                    BuildingInfo.getCityLevel(higher.getChunkX(), higher.getChunkZ(), provider));
-                            break;
-                        case 2:
-                            level = Math.max(BuildingInfo.getCityLevel(lower.getChunkX(), lower.getChunkZ(), provider),
-                                    BuildingInfo.getCityLevel(higher.getChunkX(), higher.getChunkZ(), provider));
-                            break;
-                        case 3:
-                            level = (BuildingInfo.getCityLevel(lower.getChunkX(), lower.getChunkZ(), provider) +
-                                    BuildingInfo.getCityLevel(higher.getChunkX(), higher.getChunkZ(), provider)) / 2;
-                            break;
-                        default:
-                            throw new RuntimeException("Bad value for 'highwayLevelFromCities'!");
-                    }
-                    for (ChunkCoord cc = lower; cc.getCoord(orientation) <= higher.getCoord(orientation); cc = cc.higher(orientation)) {
-                        cache.put(cc, level);
-                    }
+            if (valid) {
+                // We have at least one city. Valid highway:
+                switch (provider.profile.HIGHWAY_LEVEL_FROM_CITIES_MODE) {
+                    case 0:
+                        level = BuildingInfo.getCityLevel(lowerX, lowerZ, provider);
+                        break;
+                    case 1:
+                        level = Math.min(BuildingInfo.getCityLevel(lowerX, lowerZ, provider),
+                                BuildingInfo.getCityLevel(higherX, higherZ, provider));
+                        break;
+                    case 2:
+                        level = Math.max(BuildingInfo.getCityLevel(lowerX, lowerZ, provider),
+                                BuildingInfo.getCityLevel(higherX, higherZ, provider));
+                        break;
+                    case 3:
+                        level = (BuildingInfo.getCityLevel(lowerX, lowerZ, provider) +
+                                BuildingInfo.getCityLevel(higherX, higherZ, provider)) / 2;
+                        break;
+                    default:
+                        throw new RuntimeException("Bad value for 'highwayLevelFromCities'!");
                 }
             }
-            return level;
-
         }
+        return level;
+    }
 
-        cache.put(cp, -1);
-        return -1;
+    private static boolean hasHighway(LostCityChunkGenerator provider, boolean isX, int pos, int other) {
+        return isX ? hasXHighway(pos, other, provider) : hasZHighway(other, pos, provider);
     }
 
-    private static boolean hasXHighway(ChunkCoord cp, LostCityChunkGenerator provider) {
-        return perlinX.getValue(cp.getChunkX() / provider.profile.HIGHWAY_MAINPERLIN_SCALE, cp.getChunkZ() / provider.profile.HIGHWAY_SECONDARYPERLIN_SCALE)
+    private static boolean hasXHighway(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
+        return provider.getContext().highwayPerlinX.getValue(chunkX / provider.profile.HIGHWAY_MAINPERLIN_SCALE, chunkZ / provider.profile.HIGHWAY_SECONDARYPERLIN_SCALE)
                 > provider.profile.HIGHWAY_PERLIN_FACTOR;
     }
 
-    private static boolean hasZHighway(ChunkCoord cp, LostCityChunkGenerator provider) {
-        return perlinZ.getValue(cp.getChunkX() / provider.profile.HIGHWAY_SECONDARYPERLIN_SCALE, cp.getChunkZ() / provider.profile.HIGHWAY_MAINPERLIN_SCALE)
+    private static boolean hasZHighway(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
+        return provider.getContext().highwayPerlinZ.getValue(chunkX / provider.profile.HIGHWAY_SECONDARYPERLIN_SCALE, chunkZ / provider.profile.HIGHWAY_MAINPERLIN_SCALE)
                 > provider.profile.HIGHWAY_PERLIN_FACTOR;
     }
 
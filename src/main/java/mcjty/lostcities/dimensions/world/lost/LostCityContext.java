@@ -0,0 +1,153 @@
+package mcjty.lostcities.dimensions.world.lost;
+
+import mcjty.lostcities.api.LostChunkCharacteristics;
+import mcjty.lostcities.config.LostCityProfile;
+import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
+import mcjty.lostcities.dimensions.world.lost.cityassets.AssetRegistries;
+import mcjty.lostcities.dimensions.world.lost.cityassets.PredefinedCity;
+import mcjty.lostcities.varia.ChunkMap;
+import net.minecraft.world.gen.NoiseGeneratorPerlin;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * All generation state of a single Lost City dimension (one per LostCityChunkGenerator).
+ * Different dimensions (possibly with different profiles and seeds) don't share noise
+ * generators or caches so they can't evict each other's entries. Everything in here can
+ * be recomputed and is dropped with clear() when the dimension is unloaded.
+ */
+public class LostCityContext {
+
+    private final LostCityChunkGenerator provider;
+
+    // BuildingInfo cache. Everything in here can be recomputed from the seed
+    final ChunkMap<BuildingInfo> buildingInfoMap;
+    // The todo's that are filled by neighbouring chunks can't be recomputed. These are kept
+    // until the chunk is populated so this map is not bounded
+    final ChunkMap<ChunkTodo> todoMap = new ChunkMap<>();
+    final ChunkMap<LostChunkCharacteristics> characteristicsMap;
+    final ChunkMap<Railway.RailChunkInfo> railInfoMap = new ChunkMap<>();
+    // Regions can always be recomputed so these caches are bounded
+    final ChunkMap<ExplosionIndex> explosionRegionMap = new ChunkMap<>(4096, r -> {});
+    final ChunkMap<CityCenterIndex> cityCenterRegionMap = new ChunkMap<>(16384, r -> {});
+    // Biome ids of 32x32 chunks per tile (see BiomeInfo). About 4.5MB when full
+    final ChunkMap<byte[]> biomeTileMap = new ChunkMap<>(256, t -> {});
+    final ChunkMap<Highway.HighwayTile> xHighwayTiles = new ChunkMap<>(65536, t -> {});
+    final ChunkMap<Highway.HighwayTile> zHighwayTiles = new ChunkMap<>(65536, t -> {});
+
+    // Guards the stairs and bridges of the BuildingInfos of this dimension (these depend on neighbours)
+    final Object neighbourLock = new Object();
+
+    final NoiseGeneratorPerlin highwayPerlinX;
+    final NoiseGeneratorPerlin highwayPerlinZ;
+
+    // The predefined cities, buildings and streets of this dimension (keys are ChunkMap.toLong())
+    private volatile PredefinedMaps predefinedMaps = null;
+
+    static class PredefinedMaps {
+        final Map<Long, PredefinedCity> cities = new HashMap<>();
+        final Map<Long, PredefinedCity.PredefinedBuilding> buildings = new HashMap<>();
+        final Map<Long, PredefinedCity.PredefinedStreet> streets = new HashMap<>();
+    }
+
+    public LostCityContext(LostCityChunkGenerator provider, LostCityProfile profile, long seed) {
+        this.provider = provider;
+        buildingInfoMap = new ChunkMap<>(profile.BUILDINGINFO_CACHE_SIZE, BuildingInfo::onEvicted);
+        characteristicsMap = new ChunkMap<>(profile.CHARACTERISTICS_CACHE_SIZE, c -> {});
+        highwayPerlinX = new NoiseGeneratorPerlin(new Random(seed), 4);
+        highwayPerlinZ = new NoiseGeneratorPerlin(new Random(seed ^ 879190747L), 4);
+    }
+
+    public ChunkMap<BuildingInfo> getBuildingInfoCache() {
+        return buildingInfoMap;
+    }
+
+    public ChunkMap<LostChunkCharacteristics> getCharacteristicsCache() {
+        return characteristicsMap;
+    }
+
+    public ChunkMap<Railway.RailChunkInfo> getRailInfoCache() {
+        return railInfoMap;
+    }
+
+    public ChunkMap<ExplosionIndex> getExplosionRegionCache() {
+        return explosionRegionMap;
+    }
+
+    ChunkTodo getTodo(int chunkX, int chunkZ) {
+        ChunkTodo todo = todoMap.get(chunkX, chunkZ);
+        if (todo == null) {
+            todo = todoMap.putIfAbsent(chunkX, chunkZ, new ChunkTodo());
+        }
+        return todo;
+    }
+
+    @Nullable
+    ChunkTodo findTodo(int chunkX, int chunkZ) {
+        return todoMap.get(chunkX, chunkZ);
+    }
+
+    /**
+     * Drop the todo's of a chunk. Called at the end of populate() when all todo's were taken
+     */
+    public void removeTodo(int chunkX, int chunkZ) {
+        todoMap.remove(chunkX, chunkZ);
+    }
+
+    // The maps are completely filled before they are published so that other threads never see a partial map
+    PredefinedMaps getPredefinedMaps() {
+        PredefinedMaps maps = predefinedMaps;
+        if (maps == null) {
+            maps = setupPredefinedMaps();
+        }
+        return maps;
+    }
+
+    private synchronized PredefinedMaps setupPredefinedMaps() {
+        if (predefinedMaps != null) {
+            return predefinedMaps;
+        }
+        PredefinedMaps maps = new PredefinedMaps();
+        for (PredefinedCity city : AssetRegistries.PREDEFINED_CITIES.getIterable()) {
+            if (city.getDimension() != provider.dimensionId) {
+                continue;
+            }
+            maps.cities.put(ChunkMap.toLong(city.getChunkX(), city.getChunkZ()), city);
+            for (PredefinedCity.PredefinedBuilding building : city.getPredefinedBuildings()) {
+                maps.buildings.put(ChunkMap.toLong(city.getChunkX() + building.getRelChunkX(), city.getChunkZ() + building.getRelChunkZ()), building);
+            }
+            for (PredefinedCity.PredefinedStreet street : city.getPredefinedStreets()) {
+                maps.streets.put(ChunkMap.toLong(city.getChunkX() + street.getRelChunkX(), city.getChunkZ() + street.getRelChunkZ()), street);
+            }
+        }
+        predefinedMaps = maps;
+        return maps;
+    }
+
+    /**
+     * Drop everything that was cached for this dimension
+     */
+    public synchronized void clear() {
+        buildingInfoMap.clear();
+        todoMap.clear();
+        characteristicsMap.clear();
+        railInfoMap.clear();
+        biomeTileMap.clear();
+        explosionRegionMap.clear();
+        cityCenterRegionMap.clear();
+        xHighwayTiles.clear();
+        zHighwayTiles.clear();
+        predefinedMaps = null;
+    }
+
+    public String getStats() {
+        return "buildingInfo: " + buildingInfoMap.getStats() + ", todo: " + todoMap.getStats() + ", characteristics: " + characteristicsMap.getStats()
+                + ", railInfo: " + railInfoMap.getStats() + ", biomeTiles: " + biomeTileMap.getStats()
+                + ", explosionRegions: " + explosionRegionMap.getStats()
+                + ", cityCenterRegions: " + cityCenterRegionMap.getStats()
+                + ", highwayTiles: " + xHighwayTiles.getStats() + " / " + zHighwayTiles.getStats();
+    }
+}
@@ -2,12 +2,9 @@ package mcjty.lostcities.dimensions.world.lost;
 
 import mcjty.lostcities.api.RailChunkType;
 import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
-import mcjty.lostcities.varia.ChunkCoord;
-import mcjty.lostcities.varia.QualityRandom;
+import mcjty.lostcities.varia.ChunkMap;
+import mcjty.lostcities.varia.ChunkRandom;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
 
 import static mcjty.lostcities.api.RailChunkType.*;
 import static mcjty.lostcities.dimensions.world.lost.Railway.RailDirection.*;
@@ -85,17 +82,11 @@ public class Railway {
         }
     }
 
-    private static Map<ChunkCoord, RailChunkInfo> railInfo = new HashMap<>();
-
-    public static void cleanCache() {
-        railInfo.clear();
-    }
-
     /**
      * The station grid repeats every 9 chunks. There is never a station at every 18/18 multiple chunk
      */
     private static RailChunkInfo getRailChunkTypeInternal(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
-        Random rand = new QualityRandom(provider.seed + chunkZ * 2600003897L + chunkX * 43600002517L);
+        ChunkRandom rand = ChunkRandom.createQuality(provider.seed + chunkZ * 2600003897L + chunkX * 43600002517L, provider.profile.FAST_RANDOM);
         rand.nextFloat();
         rand.nextFloat();
 
@@ -301,13 +292,13 @@ public class Railway {
     }
 
     public static RailChunkInfo getRailChunkType(int chunkX, int chunkZ, LostCityChunkGenerator provider) {
-        ChunkCoord key = new ChunkCoord(provider.dimensionId, chunkX, chunkZ);
-        if (railInfo.containsKey(key)) {
-            return railInfo.get(key);
+        ChunkMap<RailChunkInfo> railInfo = provider.getContext().railInfoMap;
+        RailChunkInfo cached = railInfo.get(chunkX, chunkZ);
+        if (cached != null) {
+            return cached;
         }
         RailChunkInfo info = getRailChunkTypeInternal(chunkX, chunkZ, provider);
-        railInfo.put(key, info);
-        return info;
+        return railInfo.putIfAbsent(chunkX, chunkZ, info);
     }
 
     private static RailChunkInfo testAdjacentRailChunk(float r, RailChunkInfo adjacent, RailDirection direction, int chunkX, int chunkZ, LostCityChunkGenerator provider) {
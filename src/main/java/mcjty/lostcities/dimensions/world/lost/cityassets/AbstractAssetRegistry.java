@@ -1,21 +1,62 @@
 package mcjty.lostcities.dimensions.world.lost.cityassets;
 
+import com.google.gson.JsonObject;
 import mcjty.lostcities.api.ILostCityAsset;
 import mcjty.lostcities.api.ILostCityAssetRegistry;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+/**
+ * Registry for assets of a given type. Assets are registered with their name and
+ * a way to get their JSON. The actual asset is only made (and initialized) the
+ * first time it is needed. After that it is kept.
+ */
 public class AbstractAssetRegistry<T extends ILostCityAsset> implements ILostCityAssetRegistry<T>  {
 
-    private final Map<String, T> assets = new HashMap<>();
+    // Assets can refer to other assets (also of other types) while they are initialized so
+    // a single lock for all registries is used to avoid deadlocks
+    private static final Object MATERIALIZE_LOCK = new Object();
+
+    // Fully initialized assets
+    private final Map<String, T> assets = new ConcurrentHashMap<>();
+    // Assets that are made but maybe not initialized yet. Only use with MATERIALIZE_LOCK
+    private final Map<String, T> constructed = new HashMap<>();
+    // Assets that are not made yet. A source (and with it the JSON) is dropped as soon as
+    // its asset is made. Only use with MATERIALIZE_LOCK
+    private final Map<String, Source<T>> sources = new HashMap<>();
+    // Names of assets for which init() is running. Only use with MATERIALIZE_LOCK
+    private final Set<String> initializing = new HashSet<>();
     private final List<String> assetNames = new ArrayList<>();
 
     public void register(T building) {
-        assets.put(building.getName(), building);
-        assetNames.add(building.getName());
+        synchronized (MATERIALIZE_LOCK) {
+            String name = building.getName();
+            addName(name);
+            sources.remove(name);
+            constructed.put(name, building);
+            assets.remove(name);
+        }
+    }
+
+    /**
+     * Register an asset that will be made with 'factory' when it is needed
+     */
+    public void register(String name, Supplier<JsonObject> json, Function<JsonObject, T> factory) {
+        synchronized (MATERIALIZE_LOCK) {
+            addName(name);
+            sources.put(name, new Source<>(json, factory));
+            constructed.remove(name);
+            assets.remove(name);
+        }
+    }
+
+    private void addName(String name) {
+        if (!sources.containsKey(name) && !constructed.containsKey(name)) {
+            assetNames.add(name);
+        }
     }
 
     public <S extends ILostCityAsset> ILostCityAssetRegistry<S> cast() {
@@ -29,33 +70,96 @@ public class AbstractAssetRegistry<T extends ILostCityAsset> implements ILostCit
         }
         T t = assets.get(name);
         if (t != null) {
-            t.init();
+            return t;
         }
-        return t;
+        return materialize(name);
     }
 
-    public T get(int i) {
-        T t = assets.get(assetNames.get(i));
-        if (t != null) {
-            t.init();
+    private T materialize(String name) {
+        synchronized (MATERIALIZE_LOCK) {
+            T t = constructed.get(name);
+            if (t == null) {
+                Source<T> source = sources.remove(name);
+                if (source == null) {
+                    return null;
+                }
+                t = source.factory.apply(source.json.get());
+                constructed.put(name, t);
+            } else if (assets.containsKey(name) || initializing.contains(name)) {
+                // Asset is already done or we are called from its own init (cyclic reference)
+                return t;
+            }
+            initializing.add(name);
+            try {
+                t.init();
+            } finally {
+                initializing.remove(name);
+            }
+            assets.put(name, t);
+            return t;
         }
-        return t;
+    }
+
+    /**
+     * Make and initialize all assets that are not made yet
+     */
+    public void materializeAll() {
+        for (String name : getNames()) {
+            get(name);
+        }
+    }
+
+    private List<String> getNames() {
+        synchronized (MATERIALIZE_LOCK) {
+            return new ArrayList<>(assetNames);
+        }
+    }
+
+    public T get(int i) {
+        return get(getName(i));
     }
 
     @Override
     public Iterable<T> getIterable() {
-        return assets.values();
+        List<T> list = new ArrayList<>();
+        for (String name : getNames()) {
+            T t = get(name);
+            if (t != null) {
+                list.add(t);
+            }
+        }
+        return list;
     }
 
     public int getCount() {
-        return assets.size();
+        synchronized (MATERIALIZE_LOCK) {
+            return assetNames.size();
+        }
     }
 
     public String getName(int i) {
-        return assetNames.get(i);
+        synchronized (MATERIALIZE_LOCK) {
+            return assetNames.get(i);
+        }
     }
 
     public void reset() {
-        assets.clear();
+        synchronized (MATERIALIZE_LOCK) {
+            assets.clear();
+            constructed.clear();
+            sources.clear();
+            initializing.clear();
+            assetNames.clear();
+        }
+    }
+
+    private static class Source<T> {
+        private final Supplier<JsonObject> json;
+        private final Function<JsonObject, T> factory;
+
+        private Source(Supplier<JsonObject> json, Function<JsonObject, T> factory) {
+            this.json = json;
+            this.factory = factory;
+        }
     }
 }
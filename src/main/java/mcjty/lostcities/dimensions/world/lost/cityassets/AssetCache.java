@@ -0,0 +1,340 @@
+package mcjty.lostcities.dimensions.world.lost.cityassets;
+
+import com.google.gson.*;
+import com.google.gson.internal.LazilyParsedNumber;
+import mcjty.lostcities.LostCities;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Binary cache of the parsed asset libraries. The cache contains the JSON
+ * trees of all assets in a compact binary form together with a hash
+ * of the source files. If none of the sources changed the cache is memory mapped
+ * and only the type, name and offset of every asset is read. The JSON of an
+ * asset is only decoded when the asset registry needs it.
+ *
+ * Freshly parsed libraries are kept in the same binary form so the JSON trees
+ * of assets that are never used don't stay in memory. The registry drops the
+ * JSON of an asset as soon as the asset is made.
+ *
+ * We don't cache the assets themselves because palettes resolve blocks with
+ * the block registry of the running game which can change between restarts.
+ */
+public class AssetCache {
+
+    private static final int MAGIC = 0x4c434143;    // 'LCAC'
+    private static final int FORMAT = 2;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_OBJECT = 1;
+    private static final byte TAG_ARRAY = 2;
+    private static final byte TAG_STRING = 3;
+    private static final byte TAG_BOOLEAN = 4;
+    private static final byte TAG_NUMBER = 5;
+
+    /**
+     * Index the assets in the given sources (pairs of name and contents, contents is
+     * null for a missing source) using the cache file if it is still valid. If
+     * 'cacheFile' is null no cache is used. Returns all assets in order
+     */
+    public static List<Entry> index(List<Pair<String, byte[]>> sources, File cacheFile) {
+        byte[] hash = hash(sources);
+        if (cacheFile != null && cacheFile.exists()) {
+            try {
+                List<Entry> cached = read(cacheFile, hash);
+                if (cached != null) {
+                    LostCities.logger.info("Loaded assets from cache " + cacheFile.getName());
+                    return cached;
+                }
+            } catch (IOException | RuntimeException e) {
+                LostCities.logger.warn("Asset cache " + cacheFile.getName() + " is corrupt, parsing assets again", e);
+            }
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        JsonParser parser = new JsonParser();
+        for (Pair<String, byte[]> source : sources) {
+            if (source.getRight() != null) {
+                Reader reader = new InputStreamReader(new ByteArrayInputStream(source.getRight()), StandardCharsets.UTF_8);
+                addEntries(entries, parser.parse(reader), source.getLeft());
+            }
+        }
+
+        if (cacheFile != null) {
+            try {
+                write(cacheFile, hash, entries);
+            } catch (IOException e) {
+                LostCities.logger.warn("Could not write asset cache " + cacheFile.getName(), e);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Add all assets of a parsed library. Every asset is kept in the compact binary
+     * form (not as a JSON tree) until the asset registry needs it
+     */
+    public static void addEntries(List<Entry> entries, JsonElement library, String filename) {
+        for (JsonElement element : library.getAsJsonArray()) {
+            JsonObject object = element.getAsJsonObject();
+            String type = object.get("type").getAsString();
+            String name = object.get("name").getAsString();
+            byte[] encoded = encode(object);
+            entries.add(new Entry(filename, type, name, () -> readElement(ByteBuffer.wrap(encoded)).getAsJsonObject()));
+        }
+    }
+
+    private static byte[] encode(JsonObject object) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeElement(out, object);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Read a source completely. Returns null if there is no such source
+     */
+    public static byte[] readFully(InputStream inputstream) {
+        if (inputstream == null) {
+            return null;
+        }
+        try (InputStream in = inputstream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[65536];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] hash(List<Pair<String, byte[]>> sources) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(FORMAT).putInt(sources.size());
+            digest.update(header.array());
+            for (Pair<String, byte[]> source : sources) {
+                byte[] name = source.getLeft().getBytes(StandardCharsets.UTF_8);
+                byte[] contents = source.getRight();
+                ByteBuffer lengths = ByteBuffer.allocate(8);
+                lengths.putInt(name.length).putInt(contents == null ? -1 : contents.length);
+                digest.update(lengths.array());
+                digest.update(name);
+                if (contents != null) {
+                    digest.update(contents);
+                }
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<Entry> read(File cacheFile, byte[] hash) throws IOException {
+        try (FileInputStream stream = new FileInputStream(cacheFile); FileChannel channel = stream.getChannel()) {
+            // Check the header with a normal read first. A mapped file can't be replaced
+            // on all platforms as long as the mapping is alive so we only map a valid cache
+            int headerSize = 12 + hash.length;
+            ByteBuffer header = ByteBuffer.allocate(headerSize);
+            while (header.hasRemaining()) {
+                if (channel.read(header) == -1) {
+                    break;
+                }
+            }
+            header.flip();
+            if (header.remaining() < headerSize || header.getInt() != MAGIC || header.getInt() != FORMAT || header.getInt() != hash.length) {
+                return null;
+            }
+            byte[] cachedHash = new byte[hash.length];
+            header.get(cachedHash);
+            if (!Arrays.equals(hash, cachedHash)) {
+                return null;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, headerSize, channel.size() - headerSize);
+            int count = buffer.getInt();
+            List<Entry> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String library = readString(buffer);
+                String type = readString(buffer);
+                String name = readString(buffer);
+                int length = buffer.getInt();
+                int offset = buffer.position();
+                buffer.position(offset + length);
+                result.add(new Entry(library, type, name, () -> {
+                    // Every asset decodes from its own view so this is safe from multiple threads
+                    ByteBuffer view = buffer.duplicate();
+                    view.position(offset);
+                    return readElement(view).getAsJsonObject();
+                }));
+            }
+            return result;
+        }
+    }
+
+    private static void write(File cacheFile, byte[] hash, List<Entry> entries) throws IOException {
+        cacheFile.getParentFile().mkdirs();
+        // Write to a temporary file first so that a crash never leaves a half written cache
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeInt(hash.length);
+            out.write(hash);
+            out.writeInt(entries.size());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (Entry entry : entries) {
+                writeString(out, entry.getLibrary());
+                writeString(out, entry.getType());
+                writeString(out, entry.getName());
+                // Prefix the asset with its size so that it can be skipped while indexing
+                bytes.reset();
+                DataOutputStream element = new DataOutputStream(bytes);
+                writeElement(element, entry.getJson());
+                element.flush();
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+        }
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            throw new IOException("Cannot replace " + cacheFile.getName());
+        }
+        if (!tmp.renameTo(cacheFile)) {
+            throw new IOException("Cannot rename " + tmp.getName());
+        }
+    }
+
+    private static void writeElement(DataOutputStream out, JsonElement element) throws IOException {
+        if (element == null || element.isJsonNull()) {
+            out.writeByte(TAG_NULL);
+        } else if (element.isJsonObject()) {
+            out.writeByte(TAG_OBJECT);
+            JsonObject object = element.getAsJsonObject();
+            out.writeInt(object.entrySet().size());
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                writeString(out, entry.getKey());
+                writeElement(out, entry.getValue());
+            }
+        } else if (element.isJsonArray()) {
+            out.writeByte(TAG_ARRAY);
+            JsonArray array = element.getAsJsonArray();
+            out.writeInt(array.size());
+            for (JsonElement el : array) {
+                writeElement(out, el);
+            }
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                out.writeByte(TAG_BOOLEAN);
+                out.writeBoolean(primitive.getAsBoolean());
+            } else if (primitive.isNumber()) {
+                // Keep the number as it was written so that it converts exactly like the original
+                out.writeByte(TAG_NUMBER);
+                writeString(out, primitive.getAsString());
+            } else {
+                out.writeByte(TAG_STRING);
+                writeString(out, primitive.getAsString());
+            }
+        }
+    }
+
+    private static JsonElement readElement(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case TAG_NULL:
+                return JsonNull.INSTANCE;
+            case TAG_OBJECT: {
+                JsonObject object = new JsonObject();
+                int size = buffer.getInt();
+                for (int i = 0; i < size; i++) {
+                    String key = readString(buffer);
+                    object.add(key, readElement(buffer));
+                }
+                return object;
+            }
+            case TAG_ARRAY: {
+                JsonArray array = new JsonArray();
+                int size = buffer.getInt();
+                for (int i = 0; i < size; i++) {
+                    array.add(readElement(buffer));
+                }
+                return array;
+            }
+            case TAG_STRING:
+                return new JsonPrimitive(readString(buffer));
+            case TAG_BOOLEAN:
+                return new JsonPrimitive(buffer.get() != 0);
+            case TAG_NUMBER:
+                return new JsonPrimitive(new LazilyParsedNumber(readString(buffer)));
+        }
+        throw new RuntimeException("Unknown tag " + tag + " in asset cache!");
+    }
+
+    // We don't use writeUTF() because that is limited to 64K
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static class Entry {
+        private final String library;
+        private final String type;
+        private final String name;
+        private final Supplier<JsonObject> json;
+
+        public Entry(String library, String type, String name, Supplier<JsonObject> json) {
+            this.library = library;
+            this.type = type;
+            this.name = name;
+            this.json = json;
+        }
+
+        public String getLibrary() {
+            return library;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Supplier<JsonObject> getJsonSupplier() {
+            return json;
+        }
+
+        public JsonObject getJson() {
+            return json.get();
+        }
+    }
+}
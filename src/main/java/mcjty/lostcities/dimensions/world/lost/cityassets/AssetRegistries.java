@@ -1,10 +1,13 @@
 package mcjty.lostcities.dimensions.world.lost.cityassets;
 
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 
 public class AssetRegistries {
 
@@ -43,34 +46,61 @@ public class AssetRegistries {
         try {
             BufferedReader br = new BufferedReader(new InputStreamReader(inputstream, "UTF-8"));
             JsonParser parser = new JsonParser();
-            JsonElement element = parser.parse(br);
-            for (JsonElement entry : element.getAsJsonArray()) {
-                JsonObject object = entry.getAsJsonObject();
-                String type = object.get("type").getAsString();
-                if ("style".equals(type)) {
-                    STYLES.register(new Style(object));
-                } else if ("condition".equals(type)) {
-                    CONDITIONS.register(new Condition(object));
-                } else if ("palette".equals(type)) {
-                    PALETTES.register(new Palette(object));
-                } else if ("citystyle".equals(type)) {
-                    CITYSTYLES.register(new CityStyle(object));
-                } else if ("part".equals(type)) {
-                    PARTS.register(new BuildingPart(object));
-                } else if ("building".equals(type)) {
-                    BUILDINGS.register(new Building(object));
-                } else if ("multibuilding".equals(type)) {
-                    MULTI_BUILDINGS.register(new MultiBuilding(object));
-                } else if ("worldstyle".equals(type)) {
-                    WORLDSTYLES.register(new WorldStyle(object));
-                } else if ("city".equals(type)) {
-                    PREDEFINED_CITIES.register(new PredefinedCity(object));
-                } else {
-                    throw new RuntimeException("Unknown type '" + type + " in " + filename + "'!");
-                }
-            }
+            List<AssetCache.Entry> entries = new ArrayList<>();
+            AssetCache.addEntries(entries, parser.parse(br), filename);
+            register(entries);
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Load all asset libraries (pairs of name and contents, contents is null if
+     * the library is missing) in order. Unless 'cacheFile' is null the parsed
+     * libraries are cached there (see AssetCache). Assets are only made when
+     * they are first used unless 'lazy' is false
+     */
+    public static void load(List<Pair<String, byte[]>> sources, File cacheFile, boolean lazy) {
+        register(AssetCache.index(sources, cacheFile));
+        if (!lazy) {
+            CONDITIONS.materializeAll();
+            WORLDSTYLES.materializeAll();
+            PARTS.materializeAll();
+            BUILDINGS.materializeAll();
+            CITYSTYLES.materializeAll();
+            MULTI_BUILDINGS.materializeAll();
+            STYLES.materializeAll();
+            PALETTES.materializeAll();
+            PREDEFINED_CITIES.materializeAll();
+        }
+    }
+
+    private static void register(List<AssetCache.Entry> entries) {
+        for (AssetCache.Entry entry : entries) {
+            String type = entry.getType();
+            String name = entry.getName();
+            Supplier<JsonObject> json = entry.getJsonSupplier();
+            if ("style".equals(type)) {
+                STYLES.register(name, json, Style::new);
+            } else if ("condition".equals(type)) {
+                CONDITIONS.register(name, json, Condition::new);
+            } else if ("palette".equals(type)) {
+                PALETTES.register(name, json, Palette::new);
+            } else if ("citystyle".equals(type)) {
+                CITYSTYLES.register(name, json, CityStyle::new);
+            } else if ("part".equals(type)) {
+                PARTS.register(name, json, BuildingPart::new);
+            } else if ("building".equals(type)) {
+                BUILDINGS.register(name, json, Building::new);
+            } else if ("multibuilding".equals(type)) {
+                MULTI_BUILDINGS.register(name, json, MultiBuilding::new);
+            } else if ("worldstyle".equals(type)) {
+                WORLDSTYLES.register(name, json, WorldStyle::new);
+            } else if ("city".equals(type)) {
+                PREDEFINED_CITIES.register(name, json, PredefinedCity::new);
+            } else {
+                throw new RuntimeException("Unknown type '" + type + " in " + entry.getLibrary() + "'!");
+            }
+        }
+    }
 }
@@ -5,11 +5,11 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import mcjty.lostcities.api.ILostCityBuilding;
+import mcjty.lostcities.varia.ChunkRandom;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import java.util.function.Predicate;
 
 public class Building implements ILostCityBuilding {
@@ -133,7 +133,7 @@ public class Building implements ILostCityBuilding {
         return fillerBlock;
     }
 
-    public String getRandomPart(Random random, ConditionContext info) {
+    public String getRandomPart(ChunkRandom random, ConditionContext info) {
         List<String> partNames = new ArrayList<>();
         for (Pair<Predicate<ConditionContext>, String> pair : parts) {
             if (pair.getLeft().test(info)) {
@@ -146,7 +146,7 @@ public class Building implements ILostCityBuilding {
         return partNames.get(random.nextInt(partNames.size()));
     }
 
-    public String getRandomPart2(Random random, ConditionContext info) {
+    public String getRandomPart2(ChunkRandom random, ConditionContext info) {
         List<String> partNames = new ArrayList<>();
         for (Pair<Predicate<ConditionContext>, String> pair : parts2) {
             if (pair.getLeft().test(info)) {
@@ -6,8 +6,9 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import mcjty.lostcities.api.ILostCityAsset;
 import mcjty.lostcities.dimensions.world.lost.BuildingInfo;
-import org.apache.commons.lang3.StringUtils;
+import mcjty.lostcities.dimensions.world.lost.Transform;
 
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -18,15 +19,19 @@ public class BuildingPart implements ILostCityAsset {
 
     private String name;
 
-    // Data per height level
-    private String[] slices;
-
     // Dimension (should be less then 16x16)
     private int xSize;
     private int zSize;
+    private int height;
+
+    // The data of this part organized in xSize*zSize vertical columns of the given
+    // height. Column (x,z) starts at (z*xSize+x)*height
+    private char[] columns;
+    // Bit z*xSize+x is set for columns that only contain spaces
+    private BitSet emptyColumns;
 
-    // Optimized version of this part which is organized in xSize*ySize vertical strings
-    private char[][] vslices = null;
+    // Lazily compiled versions of this part, indexed by Transform ordinal
+    private final PartTemplate[] templates = new PartTemplate[Transform.values().length];
 
     private Palette localPalette = null;
 
@@ -39,9 +44,15 @@ public class BuildingPart implements ILostCityAsset {
 
     public BuildingPart(String name, int xSize, int zSize, String[] slices) {
         this.name = name;
-        this.slices = slices;
         this.xSize = xSize;
         this.zSize = zSize;
+        createColumns(slices.length);
+        for (int y = 0; y < height; y++) {
+            String slice = slices[y];
+            for (int i = 0; i < xSize * zSize; i++) {
+                setColumnChar(i, y, slice.charAt(i));
+            }
+        }
     }
 
     public Character getMetaChar(String key) {
@@ -67,37 +78,48 @@ public class BuildingPart implements ILostCityAsset {
         return name;
     }
 
+    private void createColumns(int height) {
+        this.height = height;
+        columns = new char[xSize * zSize * height];
+        emptyColumns = new BitSet(xSize * zSize);
+        emptyColumns.set(0, xSize * zSize);
+    }
+
+    // Set the character of column i (z*xSize+x) at height y
+    private void setColumnChar(int i, int y, char c) {
+        columns[i * height + y] = c;
+        if (c != ' ') {
+            emptyColumns.clear(i);
+        }
+    }
 
     /**
-     * Vertical slices, organized by z*xSize+x
+     * All columns of this part. Use getColumnOffset() to find a column. Don't modify
      */
-    public char[][] getVslices() {
-        if (vslices == null) {
-            vslices = new char[xSize * zSize][];
-            for (int x = 0 ; x < xSize ; x++) {
-                for (int z = 0 ; z < zSize ; z++) {
-                    String vs = "";
-                    boolean empty = true;
-                    for (int y = 0; y < slices.length; y++) {
-                        Character c = getC(x, y, z);
-                        vs += c;
-                        if (c != ' ') {
-                            empty = false;
-                        }
-                    }
-                    if (empty) {
-                        vslices[z*xSize+x] = null;
-                    } else {
-                        vslices[z*xSize+x] = vs.toCharArray();
-                    }
-                }
-            }
-        }
-        return vslices;
+    public char[] getColumns() {
+        return columns;
+    }
+
+    public int getColumnOffset(int x, int z) {
+        return (z * xSize + x) * height;
     }
 
-    public char[] getVSlice(int x, int z) {
-        return getVslices()[z*xSize + x];
+    public boolean isEmptyColumn(int x, int z) {
+        return emptyColumns.get(z * xSize + x);
+    }
+
+    /**
+     * Get this part with the given transform applied. The template is
+     * computed on first use and then kept
+     */
+    public PartTemplate getTemplate(Transform transform) {
+        PartTemplate template = templates[transform.ordinal()];
+        if (template == null) {
+            // Templates are immutable so it doesn't matter if two threads make one
+            template = new PartTemplate(this, transform);
+            templates[transform.ordinal()] = template;
+        }
+        return template;
     }
 
     public Palette getLocalPalette() {
@@ -110,15 +132,20 @@ public class BuildingPart implements ILostCityAsset {
         xSize = object.get("xsize").getAsInt();
         zSize = object.get("zsize").getAsInt();
         JsonArray sliceArray = object.get("slices").getAsJsonArray();
-        slices = new String[sliceArray.size()];
-        int i = 0;
+        createColumns(sliceArray.size());
+        int y = 0;
         for (JsonElement element : sliceArray) {
-            JsonArray a = element.getAsJsonArray();
-            String slice = "";
-            for (JsonElement el : a) {
-                slice += el.getAsString();
+            int i = 0;
+            for (JsonElement el : element.getAsJsonArray()) {
+                String row = el.getAsString();
+                for (int j = 0; j < row.length() && i < xSize * zSize; j++) {
+                    setColumnChar(i++, y, row.charAt(j));
+                }
             }
-            slices[i++] = slice;
+            if (i < xSize * zSize) {
+                throw new RuntimeException("Slice " + y + " of part '" + name + "' is too small!");
+            }
+            y++;
         }
         if (object.has("palette")) {
             JsonArray palette = object.get("palette").getAsJsonArray();
@@ -154,12 +181,15 @@ public class BuildingPart implements ILostCityAsset {
         object.add("xsize", new JsonPrimitive(xSize));
         object.add("zsize", new JsonPrimitive(zSize));
         JsonArray sliceArray = new JsonArray();
-        for (String slice : slices) {
+        for (int y = 0; y < height; y++) {
             JsonArray a = new JsonArray();
-            while (!slice.isEmpty()) {
-                String left = StringUtils.left(slice, xSize);
-                a.add(new JsonPrimitive(left));
-                slice = slice.substring(left.length());
+            StringBuilder row = new StringBuilder(xSize);
+            for (int z = 0; z < zSize; z++) {
+                row.setLength(0);
+                for (int x = 0; x < xSize; x++) {
+                    row.append(getC(x, y, z));
+                }
+                a.add(new JsonPrimitive(row.toString()));
             }
             sliceArray.add(a);
         }
@@ -187,15 +217,7 @@ public class BuildingPart implements ILostCityAsset {
     }
 
     public int getSliceCount() {
-        return slices.length;
-    }
-
-    public String getSlice(int i) {
-        return slices[i];
-    }
-
-    public String[] getSlices() {
-        return slices;
+        return height;
     }
 
     public int getXSize() {
@@ -206,19 +228,19 @@ public class BuildingPart implements ILostCityAsset {
         return zSize;
     }
 
-    public Character get(BuildingInfo info, int x, int y, int z) {
-        return info.getCompiledPalette().get(slices[y].charAt(z * xSize + x));
+    public char get(BuildingInfo info, int x, int y, int z) {
+        return info.getCompiledPalette().get(getC(x, y, z));
     }
 
     public String getMobID(BuildingInfo info, int x, int y, int z) {
-        return info.getCompiledPalette().getMobId(slices[y].charAt(z * xSize + x));
+        return info.getCompiledPalette().getMobId(getC(x, y, z));
     }
 
     public String getLootTable(BuildingInfo info, int x, int y, int z) {
-        return info.getCompiledPalette().getLootTable(slices[y].charAt(z * xSize + x));
+        return info.getCompiledPalette().getLootTable(getC(x, y, z));
     }
 
-    public Character getC(int x, int y, int z) {
-        return slices[y].charAt(z * xSize + x);
+    public char getC(int x, int y, int z) {
+        return columns[(z * xSize + x) * height + y];
     }
 }
@@ -5,12 +5,12 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import mcjty.lostcities.api.ILostCityCityStyle;
+import mcjty.lostcities.varia.ChunkRandom;
 import mcjty.lostcities.varia.Tools;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 public class CityStyle implements ILostCityCityStyle {
 
@@ -397,35 +397,35 @@ public class CityStyle implements ILostCityCityStyle {
         return object;
     }
 
-    public String getRandomStair(Random random) {
+    public String getRandomStair(ChunkRandom random) {
         return Tools.getRandomFromList(random, stairSelector);
     }
 
-    public String getRandomFront(Random random) {
+    public String getRandomFront(ChunkRandom random) {
         return Tools.getRandomFromList(random, frontSelector);
     }
 
-    public String getRandomRailDungeon(Random random) {
+    public String getRandomRailDungeon(ChunkRandom random) {
         return Tools.getRandomFromList(random, railDungeonSelector);
     }
 
-    public String getRandomPark(Random random) {
+    public String getRandomPark(ChunkRandom random) {
         return Tools.getRandomFromList(random, parkSelector);
     }
 
-    public String getRandomBridge(Random random) {
+    public String getRandomBridge(ChunkRandom random) {
         return Tools.getRandomFromList(random, bridgeSelector);
     }
 
-    public String getRandomFountain(Random random) {
+    public String getRandomFountain(ChunkRandom random) {
         return Tools.getRandomFromList(random, fountainSelector);
     }
 
-    public String getRandomBuilding(Random random) {
+    public String getRandomBuilding(ChunkRandom random) {
         return Tools.getRandomFromList(random, buildingSelector);
     }
 
-    public String getRandomMultiBuilding(Random random) {
+    public String getRandomMultiBuilding(ChunkRandom random) {
         return Tools.getRandomFromList(random, multiBuildingSelector);
     }
 }
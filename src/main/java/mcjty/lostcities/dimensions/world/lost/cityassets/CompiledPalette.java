@@ -5,24 +5,38 @@ import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
- * More efficient representation of a palette useful for a single chunk
+ * More efficient representation of a palette useful for a single chunk.
+ * The palette is compiled to a flat table indexed by palette character so
+ * that lookups don't need a map or boxing.
  */
 public class CompiledPalette {
 
-    private final Map<Character, Object> palette = new HashMap<>();
-    private final Map<Character, Character> damagedToBlock = new HashMap<>();
+    // Returned by find() if the palette has no entry for a character
+    public static final int ABSENT = -1;
+
+    // Entries in 'table' are either ABSENT, a block state id (0 - 65535) or an
+    // encoded index (RANDOM - index) in 'randomBlocks' for entries with random blocks
+    private static final int RANDOM = -2;
+
+    private int[] table = new int[0];
+    private char[][] randomBlocks = new char[0][];
+
+    // Sorted on block state id for binary search
+    private char[] damagedFrom = new char[0];
+    private char[] damagedTo = new char[0];
+
     private final Map<Character, String> mobIds = new HashMap<>();
     private final Map<Character, String> lootTables = new HashMap<>();
 
 
     public CompiledPalette(CompiledPalette other, Palette... palettes) {
-        this.palette.putAll(other.palette);
-        this.damagedToBlock.putAll(other.damagedToBlock);
+        this.table = other.table.clone();
+        this.randomBlocks = other.randomBlocks;     // Never modified so can be shared
+        this.damagedFrom = other.damagedFrom;
+        this.damagedTo = other.damagedTo;
         this.mobIds.putAll(other.mobIds);
         this.lootTables.putAll(other.lootTables);
         addPalettes(palettes);
@@ -43,6 +57,14 @@ public class CompiledPalette {
     }
 
     public void addPalettes(Palette[] palettes) {
+        // Compile into a temporary map first and flatten at the end
+        Map<Character, Object> palette = new HashMap<>();
+        for (int i = 0 ; i < table.length ; i++) {
+            if (table[i] != ABSENT) {
+                palette.put((char) i, table[i] >= 0 ? (Object) (char) table[i] : randomBlocks[RANDOM - table[i]]);
+            }
+        }
+
         // First add the straight palette entries
         for (Palette p : palettes) {
             for (Map.Entry<Character, Object> entry : p.palette.entrySet()) {
@@ -61,10 +83,7 @@ public class CompiledPalette {
                     }
                     palette.put(entry.getKey(), randomBlocks);
                 } else if (!(value instanceof String)) {
-                    if (value == null) {
-                        throw new RuntimeException("Invalid palette entry for '" + entry.getKey() + "'!");
-                    }
-                    palette.put(entry.getKey(), value);
+                    throw new RuntimeException("Invalid palette entry for '" + entry.getKey() + "'!");
                 }
             }
         }
@@ -80,11 +99,7 @@ public class CompiledPalette {
                     if (value instanceof String) {
                         char c = ((String) value).charAt(0);
                         if (palette.containsKey(c) && !palette.containsKey(entry.getKey())) {
-                            Object s = palette.get(c);
-                            if (s instanceof IBlockState) {
-                                s = (char) Block.BLOCK_STATE_IDS.get((IBlockState) value);
-                            }
-                            palette.put(entry.getKey(), s);
+                            palette.put(entry.getKey(), palette.get(c));
                             dirty = true;
                         }
                     }
@@ -92,6 +107,12 @@ public class CompiledPalette {
             }
         }
 
+        flatten(palette);
+
+        Map<Character, Character> damagedToBlock = new HashMap<>();
+        for (int i = 0 ; i < damagedFrom.length ; i++) {
+            damagedToBlock.put(damagedFrom[i], damagedTo[i]);
+        }
         for (Palette p : palettes) {
             for (Map.Entry<IBlockState, IBlockState> entry : p.getDamaged().entrySet()) {
                 IBlockState c = entry.getKey();
@@ -106,56 +127,99 @@ public class CompiledPalette {
                 lootTables.put(c, entry.getValue());
             }
         }
+        List<Character> sorted = new ArrayList<>(damagedToBlock.keySet());
+        Collections.sort(sorted);
+        damagedFrom = new char[sorted.size()];
+        damagedTo = new char[sorted.size()];
+        for (int i = 0 ; i < sorted.size() ; i++) {
+            damagedFrom[i] = sorted.get(i);
+            damagedTo[i] = damagedToBlock.get(sorted.get(i));
+        }
+    }
+
+    private void flatten(Map<Character, Object> palette) {
+        int size = 0;
+        for (Character c : palette.keySet()) {
+            size = Math.max(size, c + 1);
+        }
+        table = new int[size];
+        Arrays.fill(table, ABSENT);
+        List<char[]> randoms = new ArrayList<>();
+        for (Map.Entry<Character, Object> entry : palette.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Character) {
+                table[entry.getKey()] = (Character) value;
+            } else {
+                table[entry.getKey()] = RANDOM - randoms.size();
+                randoms.add((char[]) value);
+            }
+        }
+        randomBlocks = randoms.toArray(new char[randoms.size()][]);
     }
 
     public Set<Character> getCharacters() {
-        return palette.keySet();
+        Set<Character> characters = new HashSet<>();
+        for (int i = 0 ; i < table.length ; i++) {
+            if (table[i] != ABSENT) {
+                characters.add((char) i);
+            }
+        }
+        return characters;
     }
 
     public IBlockState getStraight(char c) {
-        try {
-            Object o = palette.get(c);
-            if (o instanceof IBlockState) {
-                return (IBlockState) o;
-            } else if (o instanceof Character) {
-                return Block.BLOCK_STATE_IDS.getByValue((Character) o);
-            } else {
-                char[] randomBlocks = (char[]) o;
-                return Block.BLOCK_STATE_IDS.getByValue(randomBlocks[0]);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (c >= table.length || table[c] == ABSENT) {
             return null;
         }
+        int t = table[c];
+        if (t >= 0) {
+            return Block.BLOCK_STATE_IDS.getByValue(t);
+        } else {
+            return Block.BLOCK_STATE_IDS.getByValue(randomBlocks[RANDOM - t][0]);
+        }
     }
 
     /**
      * Return true if this is a simple character that can have only one value in the palette
      */
     public boolean isSimple(char c) {
-        Object o = palette.get(c);
-        return o instanceof Character;
+        return c < table.length && table[c] >= 0;
     }
 
-    public Character get(char c) {
-        try {
-            Object o = palette.get(c);
-            if (o instanceof Character) {
-                return (Character) o;
-            } else if (o == null) {
-                return null;
-            } else {
-                char[] randomBlocks = (char[]) o;
-                return randomBlocks[LostCitiesTerrainGenerator.fastrand128()];
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+    public boolean contains(char c) {
+        return c < table.length && table[c] != ABSENT;
+    }
+
+    /**
+     * Return the block state id for this character or ABSENT if the
+     * palette has no entry for it. Random entries pick a random block
+     */
+    public int find(char c) {
+        if (c >= table.length) {
+            return ABSENT;
+        }
+        int t = table[c];
+        if (t >= ABSENT) {
+            return t;
+        }
+        return randomBlocks[RANDOM - t][LostCitiesTerrainGenerator.fastrand128()];
+    }
+
+    public char get(char c) {
+        int b = find(c);
+        if (b == ABSENT) {
+            throw new RuntimeException("Could not find entry '" + c + "' in the palette!");
         }
+        return (char) b;
     }
 
-    public Character canBeDamagedToIronBars(Character b) {
-        return damagedToBlock.get(b);
+    /**
+     * Return the block state id of the damaged version of this block
+     * or ABSENT if this block is not damaged to something else
+     */
+    public int getDamaged(char b) {
+        int idx = Arrays.binarySearch(damagedFrom, b);
+        return idx < 0 ? ABSENT : damagedTo[idx];
     }
 
     public String getMobId(Character c) { return mobIds.get(c); }
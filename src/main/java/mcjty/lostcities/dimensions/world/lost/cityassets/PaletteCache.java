@@ -0,0 +1,57 @@
+package mcjty.lostcities.dimensions.world.lost.cityassets;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compiled palettes only depend on the combination of palettes that was used
+ * to make them. There are only a few of those combinations so we compile each
+ * of them once and share the result between all chunks. Compiled palettes
+ * are never modified after they are made.
+ */
+public class PaletteCache {
+
+    // Keyed on the names of the palettes merged by Style.getRandomPaletteNames()
+    private static final Map<List<String>, CompiledPalette> stylePalettes = new ConcurrentHashMap<>();
+    // Keyed on a (shared) compiled palette combined with the local palette of a part
+    private static final Map<Pair<CompiledPalette, Palette>, CompiledPalette> partPalettes = new ConcurrentHashMap<>();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    public static void cleanCache() {
+        stylePalettes.clear();
+        partPalettes.clear();
+    }
+
+    public static CompiledPalette getCompiledPalette(List<String> paletteNames) {
+        CompiledPalette palette = stylePalettes.get(paletteNames);
+        if (palette != null) {
+            hits.increment();
+            return palette;
+        }
+        misses.increment();
+        return stylePalettes.computeIfAbsent(paletteNames, names -> new CompiledPalette(Style.mergePalettes(names)));
+    }
+
+    public static CompiledPalette getCompiledPalette(CompiledPalette base, Palette localPalette) {
+        // Palettes don't override equals() so this key works on identity
+        Pair<CompiledPalette, Palette> key = Pair.of(base, localPalette);
+        CompiledPalette palette = partPalettes.get(key);
+        if (palette != null) {
+            hits.increment();
+            return palette;
+        }
+        misses.increment();
+        return partPalettes.computeIfAbsent(key, k -> new CompiledPalette(base, localPalette));
+    }
+
+    public static String getStats() {
+        return "palettes=" + stylePalettes.size() + " partPalettes=" + partPalettes.size()
+                + " hits=" + hits.sum() + " misses=" + misses.sum();
+    }
+}
@@ -0,0 +1,88 @@
+package mcjty.lostcities.dimensions.world.lost.cityassets;
+
+import mcjty.lostcities.dimensions.world.lost.Transform;
+
+/**
+ * An immutable version of a part with a transform already applied to it. Only
+ * the non-empty vertical columns are kept. For every column we remember the
+ * rotated position (where it goes in the chunk), the original position
+ * (for looking up mob ids and loot tables in the part) and where the column
+ * starts in the column store of the part.
+ */
+public class PartTemplate {
+
+    private final int[] rotatedX;
+    private final int[] rotatedZ;
+    private final int[] originalX;
+    private final int[] originalZ;
+    private final int[] offsets;
+    private final char[] columns;
+    private final int height;
+
+    public PartTemplate(BuildingPart part, Transform transform) {
+        int count = 0;
+        for (int x = 0; x < part.getXSize(); x++) {
+            for (int z = 0; z < part.getZSize(); z++) {
+                if (!part.isEmptyColumn(x, z)) {
+                    count++;
+                }
+            }
+        }
+        rotatedX = new int[count];
+        rotatedZ = new int[count];
+        originalX = new int[count];
+        originalZ = new int[count];
+        offsets = new int[count];
+        columns = part.getColumns();
+        height = part.getSliceCount();
+        int i = 0;
+        for (int x = 0; x < part.getXSize(); x++) {
+            for (int z = 0; z < part.getZSize(); z++) {
+                if (!part.isEmptyColumn(x, z)) {
+                    rotatedX[i] = transform.rotateX(x, z);
+                    rotatedZ[i] = transform.rotateZ(x, z);
+                    originalX[i] = x;
+                    originalZ[i] = z;
+                    offsets[i] = part.getColumnOffset(x, z);
+                    i++;
+                }
+            }
+        }
+    }
+
+    public int getColumnCount() {
+        return offsets.length;
+    }
+
+    public int getRotatedX(int i) {
+        return rotatedX[i];
+    }
+
+    public int getRotatedZ(int i) {
+        return rotatedZ[i];
+    }
+
+    public int getOriginalX(int i) {
+        return originalX[i];
+    }
+
+    public int getOriginalZ(int i) {
+        return originalZ[i];
+    }
+
+    /**
+     * The column store shared by all columns. Column i is found at
+     * getOffset(i) and is getHeight() characters high. Don't modify
+     */
+    public char[] getColumns() {
+        return columns;
+    }
+
+    public int getOffset(int i) {
+        return offsets[i];
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
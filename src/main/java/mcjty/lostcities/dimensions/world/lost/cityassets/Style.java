@@ -5,12 +5,11 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import mcjty.lostcities.api.ILostCityAsset;
-import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
+import mcjty.lostcities.varia.ChunkRandom;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 public class Style implements ILostCityAsset {
 
@@ -65,28 +64,37 @@ public class Style implements ILostCityAsset {
         return name;
     }
 
-    public Palette getRandomPalette(LostCityChunkGenerator provider, Random random) {
-        Palette palette = new Palette();
+    /**
+     * Pick a random palette for every list of choices in this style and return
+     * the names of the chosen palettes (in merge order)
+     */
+    public List<String> getRandomPaletteNames(ChunkRandom random) {
+        List<String> names = new ArrayList<>(randomPaletteChoices.size());
         for (List<Pair<Float, String>> pairs : randomPaletteChoices) {
             float totalweight = 0;
             for (Pair<Float, String> pair : pairs) {
                 totalweight += pair.getKey();
             }
             float r = random.nextFloat() * totalweight;
-            Palette tomerge = null;
             for (Pair<Float, String> pair : pairs) {
                 r -= pair.getKey();
                 if (r <= 0) {
-                    tomerge = AssetRegistries.PALETTES.get(pair.getRight());
-                    if (tomerge == null) {
+                    if (AssetRegistries.PALETTES.get(pair.getRight()) == null) {
                         throw new RuntimeException("Palette '" + pair.getRight() + "' is missing!");
                     }
+                    names.add(pair.getRight());
                     break;
                 }
             }
-            palette.merge(tomerge);
         }
+        return names;
+    }
 
+    public static Palette mergePalettes(List<String> names) {
+        Palette palette = new Palette();
+        for (String name : names) {
+            palette.merge(AssetRegistries.PALETTES.get(name));
+        }
         return palette;
     }
 
@@ -7,7 +7,7 @@ import com.google.gson.JsonPrimitive;
 import mcjty.lostcities.api.ILostCityAsset;
 import mcjty.lostcities.dimensions.world.LostCityChunkGenerator;
 import mcjty.lostcities.dimensions.world.lost.BiomeInfo;
-import mcjty.lostcities.varia.ChunkCoord;
+import mcjty.lostcities.varia.ChunkRandom;
 import mcjty.lostcities.varia.Tools;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.world.biome.Biome;
@@ -67,10 +67,10 @@ public class WorldStyle implements ILostCityAsset {
     }
 
     private boolean hasBiomes(Info info, Set<String> biomeSet) {
-        Biome[] biomes = info.biomes;
+        BiomeInfo biomes = info.biomes;
 
-        if (isValidBiome(biomeSet, biomes[55]) || isValidBiome(biomeSet, biomes[54]) || isValidBiome(biomeSet, biomes[56])
-                || isValidBiome(biomeSet, biomes[5]) || isValidBiome(biomeSet, biomes[95]) ) {
+        if (isValidBiome(biomeSet, biomes.getBiome(55)) || isValidBiome(biomeSet, biomes.getBiome(54)) || isValidBiome(biomeSet, biomes.getBiome(56))
+                || isValidBiome(biomeSet, biomes.getBiome(5)) || isValidBiome(biomeSet, biomes.getBiome(95)) ) {
             return true;
         }
         return false;
@@ -99,8 +99,8 @@ public class WorldStyle implements ILostCityAsset {
     }
 
 
-    public String getRandomCityStyle(LostCityChunkGenerator provider, int chunkX, int chunkZ, Random random) {
-        Biome[] biomes = BiomeInfo.getBiomeInfo(provider, new ChunkCoord(provider.dimensionId, chunkX, chunkZ)).getBiomes();
+    public String getRandomCityStyle(LostCityChunkGenerator provider, int chunkX, int chunkZ, ChunkRandom random) {
+        BiomeInfo biomes = BiomeInfo.getBiomeInfo(provider, chunkX, chunkZ);
         Info info = new Info(biomes, chunkX, chunkZ);
         List<Pair<Float, String>> ct = new ArrayList<>();
         for (Pair<Predicate<Info>, Pair<Float, String>> pair : cityStyleSelector) {
@@ -113,11 +113,11 @@ public class WorldStyle implements ILostCityAsset {
     }
 
     private static class Info {
-        private Biome[] biomes;
+        private BiomeInfo biomes;
         private int chunkX;
         private int chunkZ;
 
-        public Info(Biome[] biomes, int chunkX, int chunkZ) {
+        public Info(BiomeInfo biomes, int chunkX, int chunkZ) {
             this.biomes = biomes;
             this.chunkX = chunkX;
             this.chunkZ = chunkZ;
@@ -5,6 +5,7 @@ import mcjty.lostcities.LostCities;
 import mcjty.lostcities.config.LostCityConfiguration;
 import mcjty.lostcities.config.LostCityProfile;
 import mcjty.lostcities.dimensions.ModDimensions;
+import mcjty.lostcities.dimensions.world.lost.cityassets.AssetCache;
 import mcjty.lostcities.dimensions.world.lost.cityassets.AssetRegistries;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.common.config.Configuration;
@@ -12,9 +13,12 @@ import net.minecraftforge.fml.common.FMLLog;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.Level;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -75,19 +79,31 @@ public abstract class CommonProxy {
         profileConfigs.clear();
 
         AssetRegistries.reset();
+        List<Pair<String, byte[]>> sources = new ArrayList<>();
         for (String path : LostCityConfiguration.ASSETS) {
             if (path.startsWith("/")) {
                 InputStream inputstream = LostCities.class.getResourceAsStream(path);
-                AssetRegistries.load(inputstream, path);
+                sources.add(Pair.of(path, AssetCache.readFully(inputstream)));
             } else if (path.startsWith("$")) {
                 File file = new File(modConfigDir.getPath() + File.separator + path.substring(1));
-                AssetRegistries.load(file);
+                sources.add(Pair.of(file.getName(), readFile(file)));
             } else {
                 throw new RuntimeException("Invalid path for lostcity resource in 'assets' config!");
             }
         }
+        File cacheFile = LostCityConfiguration.ASSET_CACHE ? new File(modConfigDir.getPath() + File.separator + "lostcities", "assetcache.bin") : null;
+        AssetRegistries.load(sources, cacheFile, LostCityConfiguration.LAZY_ASSETS);
 
         System.out.println("Asset parts loaded: " + AssetRegistries.PARTS.getCount());
     }
 
+    private static byte[] readFile(File file) {
+        try {
+            return AssetCache.readFully(new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            // Not an error
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,15 @@
+package mcjty.lostcities.varia;
+
+/**
+ * Receives the occupancy of a cache. Used for debugging and instrumentation
+ */
+public interface CacheMonitor {
+
+    /**
+     * @param name name of the cache
+     * @param entries number of entries in the cache
+     * @param bytes estimated memory used by the entries
+     * @param budget maximum memory the cache may use (0 for unbounded)
+     */
+    void report(String name, int entries, long bytes, long budget);
+}
@@ -0,0 +1,208 @@
+package mcjty.lostcities.varia;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A thread safe map from chunk coordinates (of a single dimension) to objects. The
+ * chunk coordinates are packed in a primitive long so that lookups don't have to
+ * allocate a ChunkCoord. Every chunk generator has its own maps (see LostCityContext).
+ *
+ * Optionally the map can be bounded. In that case entries are evicted with the
+ * CLOCK algorithm. Only use that for values that can be recomputed
+ * (deterministically) when they are evicted. 'onEvict' is called for every value
+ * that is dropped (also by clear()).
+ */
+@SuppressWarnings("unchecked")
+public class ChunkMap<V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Consumer<V> onEvict;
+    private volatile int maxSize;       // 0 for unbounded
+
+    // Replaced as a whole by clear()
+    private volatile Segment[] segments = createSegments();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ChunkMap() {
+        this(0, v -> {});
+    }
+
+    public ChunkMap(int maxSize, Consumer<V> onEvict) {
+        this.maxSize = maxSize;
+        this.onEvict = onEvict;
+    }
+
+    public static long toLong(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xffffffffL);
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    private Segment[] createSegments() {
+        Segment[] result = new ChunkMap.Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            result[i] = new Segment();
+        }
+        return result;
+    }
+
+    private Segment segment(long key) {
+        return segments[(LongMap.hash(key) >>> 28) & (SEGMENTS - 1)];
+    }
+
+    public V get(int chunkX, int chunkZ) {
+        long key = toLong(chunkX, chunkZ);
+        Segment segment = segment(key);
+        Node<V> node;
+        synchronized (segment) {
+            node = segment.map.get(key);
+            if (node != null) {
+                node.referenced = true;
+            }
+        }
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return node.value;
+    }
+
+    public void put(int chunkX, int chunkZ, V value) {
+        long key = toLong(chunkX, chunkZ);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.map.put(key, new Node<>(value));
+            segment.evict(key);
+        }
+    }
+
+    /**
+     * Add a value unless another thread was faster. Returns the value that
+     * ends up in the map
+     */
+    public V putIfAbsent(int chunkX, int chunkZ, V value) {
+        long key = toLong(chunkX, chunkZ);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Node<V> existing = segment.map.get(key);
+            if (existing != null) {
+                return existing.value;
+            }
+            segment.map.put(key, new Node<>(value));
+            segment.evict(key);
+        }
+        return value;
+    }
+
+    public V remove(int chunkX, int chunkZ) {
+        long key = toLong(chunkX, chunkZ);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Node<V> node = segment.map.remove(key);
+            return node == null ? null : node.value;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        Segment[] old = segments;
+        segments = createSegments();
+        for (Segment segment : old) {
+            synchronized (segment) {
+                for (int slot = 0; slot < segment.map.capacity(); slot++) {
+                    Node<V> node = segment.map.valueAt(slot);
+                    if (node != null) {
+                        onEvict.accept(node.value);
+                    }
+                }
+                segment.map.clear();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    public String getStats() {
+        return "size=" + size() + " max=" + (maxSize <= 0 ? "unbounded" : String.valueOf(maxSize))
+                + " hits=" + getHits() + " misses=" + getMisses() + " evictions=" + getEvictions();
+    }
+
+    private static class Node<V> {
+        private final V value;
+        // New entries start referenced so the next sweep doesn't evict them right away
+        private boolean referenced = true;
+
+        private Node(V value) {
+            this.value = value;
+        }
+    }
+
+    private class Segment {
+        private final LongMap<Node<V>> map = new LongMap<>();
+        private int hand = 0;
+
+        // Must be called while holding the lock on this segment. The entry that
+        // was just added ('keep') is never evicted
+        private void evict(long keep) {
+            int max = maxSize;
+            if (max <= 0) {
+                return;
+            }
+            max = Math.max(1, max / SEGMENTS);
+            // Two full sweeps are enough to clear all reference bits
+            int budget = map.capacity() * 2;
+            while (map.size() > max && budget-- > 0) {
+                int slot = hand & (map.capacity() - 1);
+                Node<V> node = map.valueAt(slot);
+                if (node == null || map.keyAt(slot) == keep) {
+                    hand = slot + 1;
+                } else if (node.referenced) {
+                    node.referenced = false;
+                    hand = slot + 1;
+                } else {
+                    // Don't advance the hand. Another entry may have shifted into this slot
+                    map.removeAt(slot);
+                    onEvict.accept(node.value);
+                    evictions.increment();
+                }
+            }
+        }
+    }
+}
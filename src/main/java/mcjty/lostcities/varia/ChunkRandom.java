@@ -0,0 +1,145 @@
+package mcjty.lostcities.varia;
+
+/**
+ * A small random generator for the decisions that are made per chunk (city centers,
+ * buildings, explosions, railways, ...). Unlike java.util.Random it is not thread
+ * safe and it has no AtomicLong, so a new one for every decision is cheap (and as it
+ * normally doesn't escape the method that makes it the JIT can avoid the allocation).
+ *
+ * By default the streams are exactly the same as those of java.util.Random (create())
+ * and QualityRandom (createQuality()) for the same seed so existing worlds don't change.
+ * With 'fast' a SplitMix64 generator is used instead. That one is faster but it gives
+ * different worlds.
+ */
+public final class ChunkRandom {
+
+    private static final int JAVA = 0;
+    private static final int QUALITY = 1;
+    private static final int SPLITMIX = 2;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final int mode;
+    // For JAVA and SPLITMIX only 'u' is used
+    private long u;
+    private long v;
+    private long w;
+
+    private ChunkRandom(int mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * The same numbers as new Random(seed) (unless fast is true)
+     */
+    public static ChunkRandom create(long seed, boolean fast) {
+        if (fast) {
+            return createSplitMix(seed);
+        }
+        ChunkRandom random = new ChunkRandom(JAVA);
+        random.u = (seed ^ MULTIPLIER) & MASK;
+        return random;
+    }
+
+    /**
+     * The same numbers as new QualityRandom(seed) (unless fast is true)
+     */
+    public static ChunkRandom createQuality(long seed, boolean fast) {
+        if (fast) {
+            return createSplitMix(seed);
+        }
+        ChunkRandom random = new ChunkRandom(QUALITY);
+        random.v = 4101842887655102017L;
+        random.w = 1;
+        random.u = seed ^ random.v;
+        random.nextQuality();
+        random.v = random.u;
+        random.nextQuality();
+        random.w = random.v;
+        random.nextQuality();
+        return random;
+    }
+
+    private static ChunkRandom createSplitMix(long seed) {
+        ChunkRandom random = new ChunkRandom(SPLITMIX);
+        // Seeds of neighbouring chunks are very similar so they are mixed first
+        random.u = mix(seed);
+        return random;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private long nextQuality() {
+        u = u * 2862933555777941757L + 7046029254386353087L;
+        v ^= v >>> 17;
+        v ^= v << 31;
+        v ^= v >>> 8;
+        w = 4294957665L * (w & 0xffffffff) + (w >>> 32);
+        long x = u ^ (u << 21);
+        x ^= x >>> 35;
+        x ^= x << 4;
+        return (x + v) ^ w;
+    }
+
+    private long next64() {
+        if (mode == QUALITY) {
+            return nextQuality();
+        }
+        u += GOLDEN_GAMMA;
+        return mix(u);
+    }
+
+    private int next(int bits) {
+        if (mode == JAVA) {
+            u = (u * MULTIPLIER + ADDEND) & MASK;
+            return (int) (u >>> (48 - bits));
+        }
+        return (int) (next64() >>> (64 - bits));
+    }
+
+    public int nextInt() {
+        return next(32);
+    }
+
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        int r = next(31);
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            r = (int) ((bound * (long) r) >> 31);
+        } else {
+            for (int u = r; u - (r = u % bound) + m < 0; u = next(31)) {
+            }
+        }
+        return r;
+    }
+
+    public long nextLong() {
+        if (mode == JAVA) {
+            return ((long) (next(32)) << 32) + next(32);
+        }
+        return next64();
+    }
+
+    public boolean nextBoolean() {
+        return next(1) != 0;
+    }
+
+    public float nextFloat() {
+        return next(24) / ((float) (1 << 24));
+    }
+
+    public double nextDouble() {
+        return (((long) (next(26)) << 27) + next(27)) * DOUBLE_UNIT;
+    }
+}
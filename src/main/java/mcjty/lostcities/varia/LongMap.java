@@ -0,0 +1,153 @@
+package mcjty.lostcities.varia;
+
+import java.util.Arrays;
+
+/**
+ * A simple open addressing (linear probing) hash map from primitive long keys
+ * to objects. Null values are not supported. This class is not thread safe.
+ */
+public class LongMap<V> {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] keys;
+    private Object[] values;        // A null value marks an empty slot
+    private int size = 0;
+    private int mask;
+    private int threshold;
+
+    public LongMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = capacity / 2;
+    }
+
+    public static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int findSlot(long key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        return (V) values[findSlot(key)];
+    }
+
+    public boolean containsKey(long key) {
+        return values[findSlot(key)] != null;
+    }
+
+    /**
+     * Returns the previous value or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        int slot = findSlot(key);
+        V old = (V) values[slot];
+        keys[slot] = key;
+        values[slot] = value;
+        if (old == null) {
+            size++;
+            if (size > threshold) {
+                resize();
+            }
+        }
+        return old;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = findSlot(key);
+        V old = (V) values[slot];
+        if (old != null) {
+            removeAt(slot);
+        }
+        return old;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Remove the entry at the given slot. Following entries in the same probe
+     * sequence are shifted back so no tombstones are needed. After this call
+     * another entry may occupy this slot.
+     */
+    public void removeAt(int slot) {
+        values[slot] = null;
+        size--;
+        int free = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                return;
+            }
+            int home = hash(keys[i]) & mask;
+            // Leave the entry if its home slot is cyclically in (free, i]
+            boolean stays = free <= i ? (free < home && home <= i) : (free < home || home <= i);
+            if (!stays) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                values[i] = null;
+                free = i;
+            }
+        }
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (keys.length == INITIAL_CAPACITY) {
+            Arrays.fill(values, null);
+        } else {
+            allocate(INITIAL_CAPACITY);
+        }
+        size = 0;
+    }
+}
@@ -49,13 +49,25 @@ public class Tools {
         if (list.isEmpty()) {
             return null;
         }
+        return getFromList(random.nextFloat(), list);
+    }
+
+    public static String getRandomFromList(ChunkRandom random, List<Pair<Float, String>> list) {
+        if (list.isEmpty()) {
+            return null;
+        }
+        return getFromList(random.nextFloat(), list);
+    }
+
+    // 'random' is between 0 and 1
+    private static String getFromList(float random, List<Pair<Float, String>> list) {
         List<Pair<Float, String>> elements = new ArrayList<>();
         float totalweight = 0;
         for (Pair<Float, String> pair : list) {
             elements.add(pair);
             totalweight += pair.getKey();
         }
-        float r = random.nextFloat() * totalweight;
+        float r = random * totalweight;
         for (Pair<Float, String> pair : elements) {
             r -= pair.getKey();
             if (r <= 0) {